@@ -1,4 +1,43 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
 
 class InsufficientBalanceException extends Exception {
     public InsufficientBalanceException(String message) {
@@ -6,135 +45,3434 @@ class InsufficientBalanceException extends Exception {
     }
 }
 
+// Thrown when admission control turns a bet away. The instances are shared and carry
+// no stack trace, so rejecting a flood of bets costs no more than accepting them.
+class BetRejectedException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    enum Reason {
+        RATE_LIMITED,
+        OVERLOADED
+    }
+
+    static final BetRejectedException RATE_LIMITED =
+            new BetRejectedException(Reason.RATE_LIMITED, "Too many bets, please slow down.");
+    static final BetRejectedException OVERLOADED =
+            new BetRejectedException(Reason.OVERLOADED, "The system is busy, please try again later.");
+
+    private final Reason reason;
+
+    private BetRejectedException(Reason reason, String message) {
+        super(message, null, false, false);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
+
+// Balances are kept as fixed-point cents, one CAS cell per account, so concurrent
+// bettors on different users never touch the same word and a debit can never overdraw.
+class BalanceLedger {
+    static final BalanceLedger DEFAULT = new BalanceLedger();
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile AtomicLongArray[] chunks = new AtomicLongArray[16];
+    private int nextAccount;
+
+    public static long toCents(double amount) {
+        if (Double.isNaN(amount) || Double.isInfinite(amount) || Math.abs(amount) > Long.MAX_VALUE / 100.0) {
+            throw new IllegalArgumentException("Amount must be a finite number.");
+        }
+        return Math.round(amount * 100.0);
+    }
+
+    public static double toAmount(long cents) {
+        return cents / 100.0;
+    }
+
+    public synchronized int open(long initialCents) {
+        int account = nextAccount;
+        int chunkIndex = account >>> CHUNK_BITS;
+        AtomicLongArray[] current = chunks;
+        if (chunkIndex == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        if (current[chunkIndex] == null) {
+            current[chunkIndex] = new AtomicLongArray(CHUNK_SIZE);
+        }
+        current[chunkIndex].set(account & CHUNK_MASK, initialCents);
+        chunks = current;
+        nextAccount++;
+        return account;
+    }
+
+    public long balance(int account) {
+        return chunk(account).get(account & CHUNK_MASK);
+    }
+
+    public void credit(int account, long cents) {
+        if (cents < 0) {
+            throw new IllegalArgumentException("Amount must not be negative.");
+        }
+        chunk(account).getAndAdd(account & CHUNK_MASK, cents);
+    }
+
+    // Credits a batch in which every account appears once; see sumByAccount.
+    public void creditAll(int[] accounts, long[] cents, int count) {
+        for (int i = 0; i < count; i++) {
+            if (cents[i] < 0) {
+                throw new IllegalArgumentException("Amount must not be negative.");
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            chunk(accounts[i]).getAndAdd(accounts[i] & CHUNK_MASK, cents[i]);
+        }
+    }
+
+    // Folds repeated accounts together in place, keeping first-seen order, and returns
+    // the number of distinct accounts, so a bettor with many winning bets in a batch
+    // is credited with one atomic add instead of one per bet.
+    static int sumByAccount(int[] accounts, long[] cents, int count) {
+        int capacity = Integer.highestOneBit(Math.max(1, count)) << 2;
+        int mask = capacity - 1;
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            int account = accounts[i];
+            int hash = account * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (slots[slot] >= 0 && accounts[slots[slot]] != account) {
+                slot = (slot + 1) & mask;
+            }
+            if (slots[slot] >= 0) {
+                cents[slots[slot]] += cents[i];
+            } else {
+                slots[slot] = distinct;
+                accounts[distinct] = account;
+                cents[distinct] = cents[i];
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    public void debit(int account, long cents) throws InsufficientBalanceException {
+        if (cents < 0) {
+            throw new IllegalArgumentException("Amount must not be negative.");
+        }
+        AtomicLongArray chunk = chunk(account);
+        int slot = account & CHUNK_MASK;
+        long current;
+        do {
+            current = chunk.get(slot);
+            if (cents > current) {
+                throw new InsufficientBalanceException("Insufficient balance.");
+            }
+        } while (!chunk.compareAndSet(slot, current, current - cents));
+    }
+
+    private AtomicLongArray chunk(int account) {
+        AtomicLongArray[] current = chunks;
+        int chunkIndex = account >>> CHUNK_BITS;
+        if (account < 0 || chunkIndex >= current.length || current[chunkIndex] == null) {
+            throw new IllegalArgumentException("Unknown account: " + account);
+        }
+        return current[chunkIndex];
+    }
+}
+
 abstract class User {
+    private static final SecureRandom SALTS = new SecureRandom();
+
     private String username;
-    private String password;
-    private double balance;
+    private String passwordHash;
+    private final BalanceLedger ledger;
+    private final int account;
+
+    public User(String username, String password, double balance) {
+        this(username, password, balance, BalanceLedger.DEFAULT);
+    }
+
+    // Benchmarks and tests pass their own ledger so their users never take slots in the shared one.
+    User(String username, String password, double balance, BalanceLedger ledger) {
+        if (password.length() < 8 || !password.matches(".*\\d.*")) {
+            throw new IllegalArgumentException("Password must be at least 8 characters long and contain a number.");
+        }
+        this.username = username;
+        this.passwordHash = hashPassword(password);
+        this.ledger = ledger;
+        this.account = ledger.open(BalanceLedger.toCents(balance));
+    }
+
+    // Rebuilds a user from the journal or a snapshot, which hold only the password hash.
+    User(BalanceLedger ledger, String username, String passwordHash, long balanceCents) {
+        this.username = username;
+        this.passwordHash = passwordHash;
+        this.ledger = ledger;
+        this.account = ledger.open(balanceCents);
+    }
+
+    // Passwords are kept only as a salted SHA-256 digest, "salt:digest" in Base64, so
+    // neither the heap nor the journal and snapshot files ever hold them in clear.
+    static String hashPassword(String password) {
+        byte[] salt = new byte[16];
+        SALTS.nextBytes(salt);
+        return Base64.getEncoder().encodeToString(salt) + ":" + Base64.getEncoder().encodeToString(digest(salt, password));
+    }
+
+    private static byte[] digest(byte[] salt, String password) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(salt);
+            return sha256.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    String getPasswordHash() {
+        return passwordHash;
+    }
+
+    public boolean login(String username, String password) {
+        int colon = passwordHash.indexOf(':');
+        byte[] salt = Base64.getDecoder().decode(passwordHash.substring(0, colon));
+        byte[] expected = Base64.getDecoder().decode(passwordHash.substring(colon + 1));
+        return this.username.equals(username) && MessageDigest.isEqual(expected, digest(salt, password));
+    }
+
+    public void deposit(double amount) {
+        ledger.credit(account, depositCents(amount));
+    }
+
+    static long depositCents(double amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Deposit amount must be positive.");
+        }
+        return BalanceLedger.toCents(amount);
+    }
+
+    public double getBalance() {
+        return BalanceLedger.toAmount(getBalanceCents());
+    }
+
+    public long getBalanceCents() {
+        return ledger.balance(account);
+    }
+
+    public int getAccount() {
+        return account;
+    }
+
+    void creditCents(long cents) {
+        ledger.credit(account, cents);
+    }
+
+    public void deductBalance(double amount) throws InsufficientBalanceException {
+        ledger.debit(account, BalanceLedger.toCents(amount));
+    }
+}
+
+class RegularUser extends User {
+    private final BettingContext context;
+    private final BetHistory betHistory;
+
+    public RegularUser(String username, String password, double balance) {
+        this(username, password, balance, BettingContext.DEFAULT);
+    }
+
+    RegularUser(String username, String password, double balance, BettingContext context) {
+        super(username, password, balance, context.ledger);
+        this.context = context;
+        this.betHistory = new BetHistory(context.gameIds, context.outcomes);
+    }
+
+    private RegularUser(BettingContext context, String username, String passwordHash, long balanceCents) {
+        super(context.ledger, username, passwordHash, balanceCents);
+        this.context = context;
+        this.betHistory = new BetHistory(context.gameIds, context.outcomes);
+    }
+
+    static RegularUser restore(String username, String passwordHash, long balanceCents, BettingContext context) {
+        return new RegularUser(context, username, passwordHash, balanceCents);
+    }
+
+    public void placeBet(Bet bet) throws InsufficientBalanceException {
+        recordBet(bet);
+        System.out.println("Bet placed successfully!");
+    }
+
+    void recordBet(Bet bet) throws InsufficientBalanceException {
+        deductBalance(bet.getAmount());
+        try {
+            context.index.record(getAccount(), bet);
+        } catch (IllegalStateException e) {
+            creditCents(BalanceLedger.toCents(bet.getAmount()));
+            throw e;
+        }
+        recorded(bet);
+    }
+
+    // As recordBet, with log writing the journal record once the game's book has taken
+    // the bet; if the book refuses it or the write fails, the debit is refunded.
+    void recordBet(Bet bet, GameBook.BetLog log) throws InsufficientBalanceException, IOException {
+        deductBalance(bet.getAmount());
+        try {
+            context.index.record(getAccount(), bet, log);
+        } catch (RuntimeException | IOException e) {
+            creditCents(BalanceLedger.toCents(bet.getAmount()));
+            throw e;
+        }
+        recorded(bet);
+    }
+
+    private void recorded(Bet bet) {
+        betHistory.add(bet);
+        long cents = BalanceLedger.toCents(bet.getAmount());
+        context.byStake.add(getAccount(), getUsername(), cents);
+        context.byNetWinnings.add(getAccount(), getUsername(), -cents);
+    }
+
+    public BetHistory.Cursor viewBetHistory() {
+        return betHistory.cursor();
+    }
+
+    public BetHistory.Cursor viewBetHistory(int page, int pageSize) {
+        return betHistory.page(page, pageSize);
+    }
+
+    public int getBetCount() {
+        return betHistory.size();
+    }
+
+    BetHistory.Columns historyColumns() {
+        return betHistory.columns();
+    }
+
+    void restoreHistory(BetHistory.Columns columns) {
+        betHistory.restore(columns);
+    }
+}
+
+class AdminUser extends User {
+    private final BettingContext context;
+    private final AtomicReference<CatalogSnapshot> catalog;
+
+    public AdminUser(String username, String password, double balance) {
+        this(username, password, balance, BettingContext.DEFAULT);
+    }
+
+    AdminUser(String username, String password, double balance, BettingContext context) {
+        super(username, password, balance, context.ledger);
+        this.context = context;
+        this.catalog = new AtomicReference<>(new CatalogSnapshot(0, new HashMap<>()));
+    }
+
+    public void addGame(Game game) {
+        putGame(game);
+        System.out.println("Game added successfully!");
+    }
+
+    public void removeGame(String gameId) {
+        deleteGame(gameId);
+        System.out.println("Game removed successfully!");
+    }
+
+    // Admin changes are serialized by the engine; the CAS loop only guards the catalog itself.
+    void putGame(Game game) {
+        if (catalog.get().contains(game.getGameId())) {
+            throw new IllegalArgumentException("Game ID already exists.");
+        }
+        // The odds board goes up before the game is published, so no bet on it misses its pool.
+        context.odds.register(game);
+        CatalogSnapshot current;
+        Map<String, Game> games;
+        Map<String, Long> addedVersions;
+        do {
+            current = catalog.get();
+            if (current.contains(game.getGameId())) {
+                throw new IllegalArgumentException("Game ID already exists.");
+            }
+            context.index.open(game.getGameId(), current.getVersion() + 1);
+            games = new HashMap<>(current.getGames());
+            games.put(game.getGameId(), game);
+            addedVersions = new HashMap<>(current.getAddedVersions());
+            addedVersions.put(game.getGameId(), current.getVersion() + 1);
+        } while (!catalog.compareAndSet(current, new CatalogSnapshot(current.getVersion() + 1, games, addedVersions)));
+    }
+
+    void deleteGame(String gameId) {
+        CatalogSnapshot current;
+        Map<String, Game> games;
+        Map<String, Long> addedVersions;
+        do {
+            current = catalog.get();
+            if (!current.contains(gameId)) {
+                throw new IllegalArgumentException("Game ID does not exist.");
+            }
+            games = new HashMap<>(current.getGames());
+            games.remove(gameId);
+            addedVersions = new HashMap<>(current.getAddedVersions());
+            addedVersions.remove(gameId);
+        } while (!catalog.compareAndSet(current, new CatalogSnapshot(current.getVersion() + 1, games, addedVersions)));
+        context.odds.unregister(gameId);
+        context.index.remove(gameId);
+    }
+
+    public CatalogSnapshot getCatalog() {
+        return catalog.get();
+    }
+
+    void restoreCatalog(CatalogSnapshot snapshot) {
+        for (Game game : snapshot.getGames().values()) {
+            context.odds.register(game);
+            context.index.open(game.getGameId(), snapshot.getAddedVersion(game.getGameId()));
+        }
+        catalog.set(snapshot);
+    }
+
+    public Map<String, Game> getGames() {
+        return catalog.get().getGames();
+    }
+
+    BettingContext getContext() {
+        return context;
+    }
+}
+
+// The shared structures one betting system works against: ledger, game books, odds,
+// leaderboards and string dictionaries. DEFAULT backs the application; benchmarks and
+// tests build their own so they never touch it.
+class BettingContext {
+    static final BettingContext DEFAULT = new BettingContext(BalanceLedger.DEFAULT, GameBetIndex.DEFAULT,
+            Leaderboard.BY_STAKE, Leaderboard.BY_NET_WINNINGS, StringDictionary.GAME_IDS, StringDictionary.OUTCOMES);
+
+    final BalanceLedger ledger;
+    final GameBetIndex index;
+    final OddsCache odds;
+    final Leaderboard byStake;
+    final Leaderboard byNetWinnings;
+    final StringDictionary gameIds;
+    final StringDictionary outcomes;
+
+    BettingContext() {
+        this(new BalanceLedger(), new GameBetIndex(new OddsCache(0.05, 100)), new Leaderboard("Total stake"),
+                new Leaderboard("Net winnings"), new StringDictionary(), new StringDictionary());
+    }
+
+    private BettingContext(BalanceLedger ledger, GameBetIndex index, Leaderboard byStake, Leaderboard byNetWinnings,
+                           StringDictionary gameIds, StringDictionary outcomes) {
+        this.ledger = ledger;
+        this.index = index;
+        this.odds = index.getOdds();
+        this.byStake = byStake;
+        this.byNetWinnings = byNetWinnings;
+        this.gameIds = gameIds;
+        this.outcomes = outcomes;
+    }
+}
+
+// An immutable, versioned copy of the game catalog. Admin changes publish a new
+// snapshot, so bet validation reads a consistent map without taking any lock.
+class CatalogSnapshot {
+    private final long version;
+    private final Map<String, Game> games;
+    private final Map<String, Long> addedVersions;
+
+    public CatalogSnapshot(long version, Map<String, Game> games) {
+        this(version, games, new HashMap<>());
+    }
+
+    public CatalogSnapshot(long version, Map<String, Game> games, Map<String, Long> addedVersions) {
+        this.version = version;
+        this.games = Collections.unmodifiableMap(games);
+        this.addedVersions = Collections.unmodifiableMap(addedVersions);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<String, Game> getGames() {
+        return games;
+    }
+
+    public boolean contains(String gameId) {
+        return games.containsKey(gameId);
+    }
+
+    // The catalog version that added the game; bets placed on an earlier game with the
+    // same id (since removed) carry an older version. 0 when unknown.
+    public long getAddedVersion(String gameId) {
+        return addedVersions.getOrDefault(gameId, 0L);
+    }
+
+    Map<String, Long> getAddedVersions() {
+        return addedVersions;
+    }
+
+    public Game getGame(String gameId) {
+        return games.get(gameId);
+    }
+}
+
+class Bet {
+    private String gameId;
+    private String outcome;
+    private double amount;
+    private long placedAt;
+    private long catalogVersion;
+
+    public Bet(String gameId, String outcome, double amount) {
+        this(gameId, outcome, amount, System.currentTimeMillis(), 0);
+    }
+
+    public Bet(String gameId, String outcome, double amount, long placedAt, long catalogVersion) {
+        this.gameId = gameId;
+        this.outcome = outcome;
+        this.amount = amount;
+        this.placedAt = placedAt;
+        this.catalogVersion = catalogVersion;
+    }
+
+    public String getGameId() {
+        return gameId;
+    }
+
+    public String getOutcome() {
+        return outcome;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public long getPlacedAt() {
+        return placedAt;
+    }
+
+    public long getCatalogVersion() {
+        return catalogVersion;
+    }
+}
+
+// Interns strings that repeat across millions of bets (game ids, outcomes) as small ints.
+class StringDictionary {
+    static final StringDictionary GAME_IDS = new StringDictionary();
+    static final StringDictionary OUTCOMES = new StringDictionary();
+
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[64];
+    private int size;
+
+    public int encode(String value) {
+        Integer code = codes.get(value);
+        return code != null ? code : add(value);
+    }
+
+    public String decode(int code) {
+        return values[code];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized int add(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        String[] current = values;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = value;
+        values = current;
+        codes.put(value, size);
+        return size++;
+    }
+}
+
+// A user's bets stored column by column: dictionary codes, cents and timestamps in
+// primitive arrays instead of one Bet object per entry. Rows are never modified
+// once written, so a cursor can keep reading the arrays it captured while new
+// bets are appended.
+class BetHistory {
+    private final StringDictionary gameIdCodes;
+    private final StringDictionary outcomeCodes;
+    private int[] gameIds = new int[4];
+    private int[] outcomes = new int[4];
+    private long[] cents = new long[4];
+    private long[] placedAt = new long[4];
+    private long[] catalogVersions = new long[4];
+    private int size;
+
+    public BetHistory() {
+        this(StringDictionary.GAME_IDS, StringDictionary.OUTCOMES);
+    }
+
+    BetHistory(StringDictionary gameIdCodes, StringDictionary outcomeCodes) {
+        this.gameIdCodes = gameIdCodes;
+        this.outcomeCodes = outcomeCodes;
+    }
+
+    public synchronized void add(Bet bet) {
+        if (size == gameIds.length) {
+            grow();
+        }
+        gameIds[size] = gameIdCodes.encode(bet.getGameId());
+        outcomes[size] = outcomeCodes.encode(bet.getOutcome());
+        cents[size] = BalanceLedger.toCents(bet.getAmount());
+        placedAt[size] = bet.getPlacedAt();
+        catalogVersions[size] = bet.getCatalogVersion();
+        size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public Cursor cursor() {
+        return range(0, Integer.MAX_VALUE);
+    }
+
+    public Cursor page(int page, int pageSize) {
+        if (page < 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Page and page size must be positive.");
+        }
+        long from = (long) page * pageSize;
+        return range((int) Math.min(from, Integer.MAX_VALUE), (int) Math.min(from + pageSize, Integer.MAX_VALUE));
+    }
+
+    private synchronized Cursor range(int from, int to) {
+        return new Cursor(this, Math.min(from, size), Math.min(to, size));
+    }
+
+    synchronized Columns columns() {
+        return new Columns(gameIds, outcomes, cents, placedAt, catalogVersions, size);
+    }
+
+    synchronized void restore(Columns columns) {
+        gameIds = columns.gameIds;
+        outcomes = columns.outcomes;
+        cents = columns.cents;
+        placedAt = columns.placedAt;
+        catalogVersions = columns.catalogVersions;
+        size = columns.size;
+    }
+
+    private void grow() {
+        int capacity = Math.max(4, size + (size >> 1));
+        gameIds = Arrays.copyOf(gameIds, capacity);
+        outcomes = Arrays.copyOf(outcomes, capacity);
+        cents = Arrays.copyOf(cents, capacity);
+        placedAt = Arrays.copyOf(placedAt, capacity);
+        catalogVersions = Arrays.copyOf(catalogVersions, capacity);
+    }
+
+    // The first size rows of these arrays never change, so holding them is a snapshot.
+    static class Columns {
+        final int[] gameIds;
+        final int[] outcomes;
+        final long[] cents;
+        final long[] placedAt;
+        final long[] catalogVersions;
+        final int size;
+
+        Columns(int[] gameIds, int[] outcomes, long[] cents, long[] placedAt, long[] catalogVersions, int size) {
+            this.gameIds = gameIds;
+            this.outcomes = outcomes;
+            this.cents = cents;
+            this.placedAt = placedAt;
+            this.catalogVersions = catalogVersions;
+            this.size = size;
+        }
+    }
+
+    static class Cursor {
+        private final StringDictionary gameIdCodes;
+        private final StringDictionary outcomeCodes;
+        private final int[] gameIds;
+        private final int[] outcomes;
+        private final long[] cents;
+        private final long[] placedAt;
+        private final long[] catalogVersions;
+        private final int end;
+        private int row;
+
+        private Cursor(BetHistory history, int from, int to) {
+            this.gameIdCodes = history.gameIdCodes;
+            this.outcomeCodes = history.outcomeCodes;
+            this.gameIds = history.gameIds;
+            this.outcomes = history.outcomes;
+            this.cents = history.cents;
+            this.placedAt = history.placedAt;
+            this.catalogVersions = history.catalogVersions;
+            this.row = from - 1;
+            this.end = to;
+        }
+
+        public boolean next() {
+            return ++row < end;
+        }
+
+        public String getGameId() {
+            return gameIdCodes.decode(gameIds[row]);
+        }
+
+        public String getOutcome() {
+            return outcomeCodes.decode(outcomes[row]);
+        }
+
+        public long getAmountCents() {
+            return cents[row];
+        }
+
+        public double getAmount() {
+            return BalanceLedger.toAmount(cents[row]);
+        }
+
+        public long getPlacedAt() {
+            return placedAt[row];
+        }
+
+        public long getCatalogVersion() {
+            return catalogVersions[row];
+        }
+
+        public Bet toBet() {
+            return new Bet(getGameId(), getOutcome(), getAmount(), getPlacedAt(), getCatalogVersion());
+        }
+    }
+}
+
+class Game {
+    private String gameId;
+    private String gameName;
+    private List<String> outcomes;
+
+    public Game(String gameId, String gameName) {
+        this(gameId, gameName, Collections.emptyList());
+    }
+
+    // A game without declared outcomes accepts bets on any outcome but has no odds market.
+    public Game(String gameId, String gameName, List<String> outcomes) {
+        if (new HashSet<>(outcomes).size() != outcomes.size()) {
+            throw new IllegalArgumentException("Outcomes must be unique.");
+        }
+        this.gameId = gameId;
+        this.gameName = gameName;
+        this.outcomes = Collections.unmodifiableList(new ArrayList<>(outcomes));
+    }
+
+    public String getGameId() {
+        return gameId;
+    }
+
+    public String getGameName() {
+        return gameName;
+    }
+
+    public List<String> getOutcomes() {
+        return outcomes;
+    }
+
+    public boolean acceptsOutcome(String outcome) {
+        return outcomes.isEmpty() || outcomes.contains(outcome);
+    }
+}
+
+// Append-only columns of the bets placed on one game. Bets are spread over a few
+// independently locked stripes so a popular game does not serialize every bettor.
+class GameBook {
+    private static final int STRIPES = 16;
+
+    // Writes a bet's journal record; see record(int, String, long, BetLog).
+    interface BetLog {
+        void write() throws IOException;
+    }
+
+    static class Stripe {
+        private int[] accounts = new int[64];
+        private String[] outcomes = new String[64];
+        private long[] cents = new long[64];
+        private int size;
+
+        private void add(int account, String outcome, long amountCents) {
+            if (size == accounts.length) {
+                accounts = Arrays.copyOf(accounts, size * 2);
+                outcomes = Arrays.copyOf(outcomes, size * 2);
+                cents = Arrays.copyOf(cents, size * 2);
+            }
+            accounts[size] = account;
+            outcomes[size] = outcome;
+            cents[size] = amountCents;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int account(int i) {
+            return accounts[i];
+        }
+
+        public String outcome(int i) {
+            return outcomes[i];
+        }
+
+        public long cents(int i) {
+            return cents[i];
+        }
+    }
+
+    private final String gameId;
+    private final OddsCache odds;
+    private final long addedVersion;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongAdder stakeCents = new LongAdder();
+    private final LongAdder betCount = new LongAdder();
+    private final LongAccumulator largestBetCents = new LongAccumulator(Math::max, 0);
+    private volatile boolean closed;
+
+    public GameBook(String gameId, OddsCache odds) {
+        this(gameId, odds, 0);
+    }
+
+    // addedVersion is the catalog version that added the game, or 0 for a book opened
+    // by a bet without one.
+    public GameBook(String gameId, OddsCache odds, long addedVersion) {
+        this.gameId = gameId;
+        this.odds = odds;
+        this.addedVersion = addedVersion;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public String getGameId() {
+        return gameId;
+    }
+
+    public long getAddedVersion() {
+        return addedVersion;
+    }
+
+    public void record(int account, String outcome, long amountCents) {
+        Stripe stripe = stripes[account & (STRIPES - 1)];
+        synchronized (stripe) {
+            checkOpen();
+            stripe.add(account, outcome, amountCents);
+        }
+        counted(outcome, amountCents);
+    }
+
+    // Writes the journal record under the stripe lock, once the book has accepted the
+    // bet and before anyone can see it: a logged bet is never turned away by a close
+    // that follows, and a failed write leaves the book untouched.
+    public void record(int account, String outcome, long amountCents, BetLog log) throws IOException {
+        Stripe stripe = stripes[account & (STRIPES - 1)];
+        synchronized (stripe) {
+            checkOpen();
+            log.write();
+            stripe.add(account, outcome, amountCents);
+        }
+        counted(outcome, amountCents);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Game " + gameId + " is already settled.");
+        }
+    }
+
+    private void counted(String outcome, long amountCents) {
+        stakeCents.add(amountCents);
+        betCount.increment();
+        largestBetCents.accumulate(amountCents);
+        odds.onBet(gameId, outcome, amountCents);
+    }
+
+    public GameExposure exposure() {
+        return new GameExposure(gameId, stakeCents.sum(), betCount.sum(), largestBetCents.get(), closed);
+    }
+
+    // Stops new bets and waits for in-flight ones; the returned stripes are then immutable.
+    public Stripe[] close() {
+        closed = true;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                // Acquiring each lock once is enough to drain concurrent record() calls.
+            }
+        }
+        return stripes;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    void restoreClosed(GameExposure exposure) {
+        stakeCents.add(exposure.getStakeCents());
+        betCount.add(exposure.getBetCount());
+        largestBetCents.accumulate(exposure.getLargestBetCents());
+        close();
+    }
+}
+
+class GameBetIndex {
+    static final GameBetIndex DEFAULT = new GameBetIndex(OddsCache.DEFAULT);
+
+    private final Map<String, GameBook> books = new ConcurrentHashMap<>();
+    private final OddsCache odds;
+
+    // Every bet recorded here also feeds the odds cache's outcome pools.
+    public GameBetIndex(OddsCache odds) {
+        this.odds = odds;
+    }
+
+    // A bet validated against a catalog only lands in the book of that same game: once
+    // the game is removed its book is gone, and a game re-added under the id has a
+    // newer added version. Bets without a catalog version open a book on demand.
+    public void record(int account, Bet bet) {
+        bookAccepting(bet).record(account, bet.getOutcome(), BalanceLedger.toCents(bet.getAmount()));
+    }
+
+    public void record(int account, Bet bet, GameBook.BetLog log) throws IOException {
+        bookAccepting(bet).record(account, bet.getOutcome(), BalanceLedger.toCents(bet.getAmount()), log);
+    }
+
+    private GameBook bookAccepting(Bet bet) {
+        String gameId = bet.getGameId();
+        if (bet.getCatalogVersion() == 0) {
+            return bookFor(gameId);
+        }
+        GameBook book = books.get(gameId);
+        if (book == null || bet.getCatalogVersion() < book.getAddedVersion()) {
+            throw new IllegalStateException("Game " + gameId + " was removed.");
+        }
+        return book;
+    }
+
+    public GameBook book(String gameId) {
+        return books.get(gameId);
+    }
+
+    public GameBook bookFor(String gameId) {
+        return books.computeIfAbsent(gameId, id -> new GameBook(id, odds));
+    }
+
+    // Opens an empty book for a game the catalog is about to publish at addedVersion.
+    public void open(String gameId, long addedVersion) {
+        GameBook replaced = books.put(gameId, new GameBook(gameId, odds, addedVersion));
+        if (replaced != null) {
+            replaced.close();
+        }
+    }
+
+    // Drops a removed game's book, so a game later added under the same id starts with
+    // an empty, open one. Closing it turns away any bet still on its way to the old book.
+    public void remove(String gameId) {
+        GameBook book = books.remove(gameId);
+        if (book != null) {
+            book.close();
+        }
+    }
+
+    public OddsCache getOdds() {
+        return odds;
+    }
+
+    public GameExposure exposure(String gameId) {
+        GameBook book = books.get(gameId);
+        return book == null ? new GameExposure(gameId, 0, 0, 0, false) : book.exposure();
+    }
+
+    public List<GameExposure> settledGames() {
+        List<GameExposure> settled = new ArrayList<>();
+        for (GameBook book : books.values()) {
+            if (book.isClosed()) {
+                settled.add(book.exposure());
+            }
+        }
+        return settled;
+    }
+}
+
+class GameExposure {
+    private final String gameId;
+    private final long stakeCents;
+    private final long betCount;
+    private final long largestBetCents;
+    private final boolean settled;
+
+    public GameExposure(String gameId, long stakeCents, long betCount, long largestBetCents, boolean settled) {
+        this.gameId = gameId;
+        this.stakeCents = stakeCents;
+        this.betCount = betCount;
+        this.largestBetCents = largestBetCents;
+        this.settled = settled;
+    }
+
+    public String getGameId() {
+        return gameId;
+    }
+
+    public long getStakeCents() {
+        return stakeCents;
+    }
+
+    public long getBetCount() {
+        return betCount;
+    }
+
+    public long getLargestBetCents() {
+        return largestBetCents;
+    }
+
+    public boolean isSettled() {
+        return settled;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Game %s: $%.2f staked over %d bets, largest bet $%.2f%s",
+                gameId, BalanceLedger.toAmount(stakeCents), betCount,
+                BalanceLedger.toAmount(largestBetCents), settled ? " (settled)" : "");
+    }
+}
+
+class SettlementReport {
+    private final String gameId;
+    private final String winningOutcome;
+    private final long bets;
+    private final long winners;
+    private final long poolCents;
+    private final long paidCents;
+    private final long elapsedNanos;
+
+    public SettlementReport(String gameId, String winningOutcome, long bets, long winners,
+                            long poolCents, long paidCents, long elapsedNanos) {
+        this.gameId = gameId;
+        this.winningOutcome = winningOutcome;
+        this.bets = bets;
+        this.winners = winners;
+        this.poolCents = poolCents;
+        this.paidCents = paidCents;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getBets() {
+        return bets;
+    }
+
+    public long getWinners() {
+        return winners;
+    }
+
+    public long getPoolCents() {
+        return poolCents;
+    }
+
+    public long getPaidCents() {
+        return paidCents;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getBetsPerSecond() {
+        return elapsedNanos == 0 ? 0 : bets * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Game %s settled on '%s': %d bets, %d winners, pool $%.2f, paid $%.2f, house $%.2f (%.1f ms, %.0f bets/s)",
+                gameId, winningOutcome, bets, winners, BalanceLedger.toAmount(poolCents),
+                BalanceLedger.toAmount(paidCents), BalanceLedger.toAmount(poolCents - paidCents),
+                elapsedNanos / 1_000_000.0, getBetsPerSecond());
+    }
+}
+
+// Parimutuel settlement: the pool, less the house take, is shared by the winning
+// bets in proportion to their stake. If nobody picked the winner every stake is refunded.
+class GameSettlement {
+    private static final int SLICE_SIZE = 1 << 16;
+
+    private static class Slice {
+        final GameBook.Stripe stripe;
+        final int from;
+        final int to;
+
+        Slice(GameBook.Stripe stripe, int from, int to) {
+            this.stripe = stripe;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final GameBetIndex index;
+    private final BalanceLedger ledger;
+    private final Leaderboard byNetWinnings;
+    private final double houseTake;
+
+    public GameSettlement(BettingContext context, double houseTake) {
+        if (houseTake < 0 || houseTake >= 1) {
+            throw new IllegalArgumentException("House take must be between 0 and 1.");
+        }
+        this.index = context.index;
+        this.ledger = context.ledger;
+        this.byNetWinnings = context.byNetWinnings;
+        this.houseTake = houseTake;
+    }
+
+    public SettlementReport settle(String gameId, String winningOutcome) {
+        long start = System.nanoTime();
+        GameBook book = index.bookFor(gameId);
+        if (book.isClosed()) {
+            throw new IllegalStateException("Game " + gameId + " is already settled.");
+        }
+        List<Slice> slices = new ArrayList<>();
+        for (GameBook.Stripe stripe : book.close()) {
+            for (int from = 0; from < stripe.size(); from += SLICE_SIZE) {
+                slices.add(new Slice(stripe, from, Math.min(stripe.size(), from + SLICE_SIZE)));
+            }
+        }
+
+        long[] pools = slices.parallelStream()
+                .map(slice -> {
+                    long[] sums = new long[3];
+                    for (int i = slice.from; i < slice.to; i++) {
+                        long cents = slice.stripe.cents(i);
+                        sums[0] += cents;
+                        sums[1]++;
+                        if (winningOutcome.equals(slice.stripe.outcome(i))) {
+                            sums[2] += cents;
+                        }
+                    }
+                    return sums;
+                })
+                .reduce(new long[3], (a, b) -> new long[] {a[0] + b[0], a[1] + b[1], a[2] + b[2]});
+        long pool = pools[0];
+        long bets = pools[1];
+        long winningPool = pools[2];
+        boolean refund = winningPool == 0;
+        long netPool = refund ? pool : pool - Math.round(pool * houseTake);
+
+        long[] paid = slices.parallelStream()
+                .map(slice -> {
+                    int[] accounts = new int[slice.to - slice.from];
+                    long[] payouts = new long[slice.to - slice.from];
+                    int count = 0;
+                    long total = 0;
+                    for (int i = slice.from; i < slice.to; i++) {
+                        long stake = slice.stripe.cents(i);
+                        long payout;
+                        if (refund) {
+                            payout = stake;
+                        } else if (winningOutcome.equals(slice.stripe.outcome(i))) {
+                            payout = multiplyDivide(stake, netPool, winningPool);
+                        } else {
+                            continue;
+                        }
+                        accounts[count] = slice.stripe.account(i);
+                        payouts[count] = payout;
+                        total += payout;
+                        count++;
+                    }
+                    int winners = count;
+                    count = BalanceLedger.sumByAccount(accounts, payouts, count);
+                    ledger.creditAll(accounts, payouts, count);
+                    byNetWinnings.addAll(accounts, payouts, count);
+                    return new long[] {total, winners};
+                })
+                .reduce(new long[2], (a, b) -> new long[] {a[0] + b[0], a[1] + b[1]});
+
+        return new SettlementReport(gameId, winningOutcome, bets, refund ? 0 : paid[1],
+                pool, paid[0], System.nanoTime() - start);
+    }
+
+    private static long multiplyDivide(long value, long multiplier, long divisor) {
+        long high = Math.multiplyHigh(value, multiplier);
+        long low = value * multiplier;
+        if (high == 0 && low >= 0) {
+            return low / divisor;
+        }
+        return BigInteger.valueOf(value).multiply(BigInteger.valueOf(multiplier))
+                .divide(BigInteger.valueOf(divisor)).longValueExact();
+    }
+}
+
+// Per-outcome parimutuel pools for one game plus the last published odds. Bets only
+// add to a LongAdder and, on the first change since the last recompute, queue the
+// board once; the odds themselves are recomputed later by the cache.
+class OddsBoard {
+    private final Game game;
+    private final LongAdder[] pools;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private volatile OddsQuote quote;
+    private long recomputations;
+
+    public OddsBoard(Game game) {
+        this.game = game;
+        this.pools = new LongAdder[game.getOutcomes().size()];
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = new LongAdder();
+        }
+    }
+
+    boolean add(String outcome, long cents) {
+        int index = game.getOutcomes().indexOf(outcome);
+        if (index < 0) {
+            return false;
+        }
+        pools[index].add(cents);
+        return !dirty.get() && dirty.compareAndSet(false, true);
+    }
+
+    // Called from the single recompute thread, or once by a reader before the first publish.
+    synchronized OddsQuote recompute(double houseTake) {
+        dirty.set(false);
+        long[] amounts = new long[pools.length];
+        long total = 0;
+        for (int i = 0; i < pools.length; i++) {
+            amounts[i] = pools[i].sum();
+            total += amounts[i];
+        }
+        long net = total - Math.round(total * houseTake);
+        double[] odds = new double[pools.length];
+        for (int i = 0; i < pools.length; i++) {
+            odds[i] = amounts[i] == 0 ? 0 : (double) net / amounts[i];
+        }
+        quote = new OddsQuote(game.getGameId(), ++recomputations, game.getOutcomes(), amounts, total, odds,
+                System.currentTimeMillis());
+        return quote;
+    }
+
+    OddsQuote quote() {
+        return quote;
+    }
+}
+
+class OddsQuote {
+    private final String gameId;
+    private final long version;
+    private final List<String> outcomes;
+    private final long[] poolCents;
+    private final long totalCents;
+    private final double[] odds;
+    private final long computedAt;
+
+    public OddsQuote(String gameId, long version, List<String> outcomes, long[] poolCents, long totalCents,
+                     double[] odds, long computedAt) {
+        this.gameId = gameId;
+        this.version = version;
+        this.outcomes = outcomes;
+        this.poolCents = poolCents;
+        this.totalCents = totalCents;
+        this.odds = odds;
+        this.computedAt = computedAt;
+    }
+
+    public String getGameId() {
+        return gameId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<String> getOutcomes() {
+        return outcomes;
+    }
+
+    public long getPoolCents(int outcome) {
+        return poolCents[outcome];
+    }
+
+    public long getTotalCents() {
+        return totalCents;
+    }
+
+    // Decimal odds (payout per unit staked) if the game ended now; 0 when nobody backed the outcome.
+    public double getOdds(int outcome) {
+        return odds[outcome];
+    }
+
+    public long getComputedAt() {
+        return computedAt;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(String.format("Game %s odds (pool $%.2f, v%d):",
+                gameId, BalanceLedger.toAmount(totalCents), version));
+        for (int i = 0; i < outcomes.size(); i++) {
+            text.append(String.format("%n  %s: $%.2f staked, %s", outcomes.get(i),
+                    BalanceLedger.toAmount(poolCents[i]), odds[i] == 0 ? "no odds yet" : String.format("%.2f", odds[i])));
+        }
+        return text.toString();
+    }
+}
+
+// Serves odds quotes from per-game boards. A background thread recomputes only the
+// boards that changed, at most once per refresh interval, so a burst of bets costs
+// one recomputation per game per tick and readers always get an immutable quote.
+class OddsCache {
+    static final OddsCache DEFAULT = new OddsCache(0.05, 100);
+
+    private final Map<String, OddsBoard> boards = new ConcurrentHashMap<>();
+    private final Queue<OddsBoard> changed = new ConcurrentLinkedQueue<>();
+    private final double houseTake;
+    private final long refreshMillis;
+    private final LongAdder recomputations = new LongAdder();
+    private volatile ScheduledExecutorService refresher;
+
+    public OddsCache(double houseTake, long refreshMillis) {
+        this.houseTake = houseTake;
+        this.refreshMillis = refreshMillis;
+    }
+
+    public void register(Game game) {
+        if (game.getOutcomes().isEmpty()) {
+            boards.remove(game.getGameId());
+        } else {
+            boards.put(game.getGameId(), new OddsBoard(game));
+            startRefresher();
+        }
+    }
+
+    public void unregister(String gameId) {
+        boards.remove(gameId);
+    }
+
+    public void onBet(String gameId, String outcome, long cents) {
+        OddsBoard board = boards.get(gameId);
+        if (board != null && board.add(outcome, cents)) {
+            changed.add(board);
+        }
+    }
+
+    public OddsQuote quote(String gameId) {
+        OddsBoard board = boards.get(gameId);
+        if (board == null) {
+            throw new IllegalArgumentException("Game has no odds market.");
+        }
+        OddsQuote quote = board.quote();
+        return quote != null ? quote : board.recompute(houseTake);
+    }
+
+    public long getRecomputations() {
+        return recomputations.sum();
+    }
+
+    void refresh() {
+        OddsBoard board;
+        while ((board = changed.poll()) != null) {
+            board.recompute(houseTake);
+            recomputations.increment();
+        }
+    }
+
+    private void startRefresher() {
+        if (refresher != null) {
+            return;
+        }
+        synchronized (this) {
+            if (refresher == null) {
+                ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "odds-refresher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                executor.scheduleWithFixedDelay(this::refresh, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+                refresher = executor;
+            }
+        }
+    }
+}
+
+// Live ranking of users by one score over a RankedTreap keyed by account, so
+// top-N and rank-of-user are O(log n) and writers never wait for each other.
+class Leaderboard {
+    static final Leaderboard BY_STAKE = new Leaderboard("Total stake");
+    static final Leaderboard BY_NET_WINNINGS = new Leaderboard("Net winnings");
+
+    static class Standing {
+        private final int rank;
+        private final String username;
+        private final long scoreCents;
+
+        Standing(int rank, String username, long scoreCents) {
+            this.rank = rank;
+            this.username = username;
+            this.scoreCents = scoreCents;
+        }
+
+        public int getRank() {
+            return rank;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public long getScoreCents() {
+            return scoreCents;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d. %s $%.2f", rank, username, BalanceLedger.toAmount(scoreCents));
+        }
+    }
+
+    private final String metric;
+    // Net winnings go negative, so a user stays ranked at zero.
+    private final RankedTreap<String> ranking = new RankedTreap<>(false);
+    private final Map<String, Integer> accounts = new ConcurrentHashMap<>();
+
+    public Leaderboard(String metric) {
+        this.metric = metric;
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    public void add(int account, String username, long delta) {
+        accounts.putIfAbsent(username, account);
+        ranking.add(account, username, delta);
+    }
+
+    // Payouts to accounts that never placed a bet here are ignored.
+    public void addAll(int[] accounts, long[] deltas, int count) {
+        ranking.addAll(accounts, deltas, count);
+    }
+
+    public List<Standing> top(int limit) {
+        List<Standing> standings = new ArrayList<>();
+        ranking.top(limit, (rank, username, score) -> standings.add(new Standing(rank, username, score)));
+        return standings;
+    }
+
+    // 1-based rank, or 0 if the user has no score yet.
+    public int rank(String username) {
+        Integer account = accounts.get(username);
+        return account == null ? 0 : ranking.rank(account);
+    }
+
+    public long score(int account) {
+        return ranking.score(account);
+    }
+
+    public int size() {
+        return ranking.size();
+    }
+}
+
+// Append-only write-ahead journal over a memory-mapped file. Each record is
+// [length][crc32][type][fields]; a zero length marks the end of the log. The log
+// methods return the record's end position and sync() blocks until that position
+// is on disk. Whichever caller finds no flush running forces everything written
+// so far, so concurrent writers share one fsync.
+class BettingJournal implements Closeable {
+    interface Handler {
+        void register(String username, String passwordHash, long balanceCents);
+
+        void deposit(String username, long cents);
+
+        void placeBet(String username, Bet bet) throws InsufficientBalanceException;
+
+        void addGame(String gameId, String gameName, List<String> outcomes);
+
+        void removeGame(String gameId);
+
+        void settleGame(String gameId, String winningOutcome);
+    }
+
+    private static final byte DEPOSIT = 2;
+    private static final byte PLACE_BET = 3;
+    private static final byte ADD_GAME = 4;
+    private static final byte REMOVE_GAME = 5;
+    private static final byte SETTLE_GAME = 6;
+    private static final byte REGISTER = 7;
+
+    private static final int SEGMENT_SIZE = 64 << 20;
+    private static final int HEADER_SIZE = 8;
+    private static final int SKIP_TO_NEXT_SEGMENT = -1;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+    private static final int MAX_OUTCOMES = 0xFFFF;
+    private static final int MAX_RECORD_BYTES = SEGMENT_SIZE - HEADER_SIZE;
+
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private ByteBuffer scratch = ByteBuffer.allocate(1 << 10);
+    private final CRC32 crc = new CRC32();
+    private long writePosition;
+
+    private final Object flushLock = new Object();
+    private long durablePosition;
+    private boolean flushing;
+
+    private final LongAdder appends = new LongAdder();
+    private final LongAdder appendNanos = new LongAdder();
+    private final LongAccumulator maxAppendNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder syncNanos = new LongAdder();
+    private final LongAccumulator maxSyncNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder groupCommits = new LongAdder();
+    private long replayedRecords;
+    private long skippedRecords;
+    private long replayNanos;
+
+    private BettingJournal(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    public static BettingJournal open(Path path, Handler handler) throws IOException {
+        return open(path, handler, 0);
+    }
+
+    // Replays only the records at or after fromPosition, e.g. those newer than a snapshot.
+    public static BettingJournal open(Path path, Handler handler, long fromPosition) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        BettingJournal journal = new BettingJournal(channel);
+        try {
+            journal.replay(handler, fromPosition);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    public long logRegister(String username, String passwordHash, long balanceCents) throws IOException {
+        return append(REGISTER, size(username) + size(passwordHash) + Long.BYTES, record -> {
+            putString(record, username);
+            putString(record, passwordHash);
+            record.putLong(balanceCents);
+        });
+    }
+
+    public long logDeposit(String username, long cents) throws IOException {
+        return append(DEPOSIT, size(username) + Long.BYTES, record -> {
+            putString(record, username);
+            record.putLong(cents);
+        });
+    }
+
+    public long logBet(String username, Bet bet) throws IOException {
+        int length = size(username) + size(bet.getGameId()) + size(bet.getOutcome()) + 3 * Long.BYTES;
+        return append(PLACE_BET, length, record -> {
+            putString(record, username);
+            putString(record, bet.getGameId());
+            putString(record, bet.getOutcome());
+            record.putLong(BalanceLedger.toCents(bet.getAmount()));
+            record.putLong(bet.getPlacedAt());
+            record.putLong(bet.getCatalogVersion());
+        });
+    }
+
+    public long logAddGame(Game game) throws IOException {
+        List<String> outcomes = game.getOutcomes();
+        if (outcomes.size() > MAX_OUTCOMES) {
+            throw new IllegalArgumentException("Too many outcomes to journal.");
+        }
+        long length = size(game.getGameId()) + size(game.getGameName()) + Short.BYTES;
+        for (String outcome : outcomes) {
+            length += size(outcome);
+        }
+        if (length > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Game is too large to journal.");
+        }
+        return append(ADD_GAME, (int) length, record -> {
+            putString(record, game.getGameId());
+            putString(record, game.getGameName());
+            record.putShort((short) outcomes.size());
+            for (String outcome : outcomes) {
+                putString(record, outcome);
+            }
+        });
+    }
+
+    public long logRemoveGame(String gameId) throws IOException {
+        return append(REMOVE_GAME, size(gameId), record -> putString(record, gameId));
+    }
+
+    public long logSettleGame(String gameId, String winningOutcome) throws IOException {
+        return append(SETTLE_GAME, size(gameId) + size(winningOutcome), record -> {
+            putString(record, gameId);
+            putString(record, winningOutcome);
+        });
+    }
+
+    public String replayStats() {
+        double millis = replayNanos / 1_000_000.0;
+        return String.format("Journal replayed %d records (%d skipped) in %.1f ms (%.0f records/s)",
+                replayedRecords, skippedRecords, millis,
+                replayNanos == 0 ? 0 : replayedRecords * 1_000_000_000.0 / replayNanos);
+    }
+
+    public String appendStats() {
+        long count = appends.sum();
+        long waits = syncs.sum();
+        long commits = groupCommits.sum();
+        return String.format("Journal appended %d records, append avg %.1f us, max %.1f us, "
+                        + "sync wait avg %.1f us, max %.1f us, %d group commits (%.1f records/commit)",
+                count, count == 0 ? 0 : appendNanos.sum() / 1_000.0 / count, maxAppendNanos.get() / 1_000.0,
+                waits == 0 ? 0 : syncNanos.sum() / 1_000.0 / waits, maxSyncNanos.get() / 1_000.0,
+                commits, commits == 0 ? 0 : (double) count / commits);
+    }
+
+    public synchronized long position() {
+        return writePosition;
+    }
+
+    public void sync(long position) throws IOException {
+        long start = System.nanoTime();
+        awaitDurable(position);
+        long elapsed = System.nanoTime() - start;
+        syncs.increment();
+        syncNanos.add(elapsed);
+        maxSyncNanos.accumulate(elapsed);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+        channel.close();
+    }
+
+    // Timed from before the lock, so the figure covers waiting for the writer slot,
+    // encoding, the CRC and the copy into the mapped segment. maxLength bounds the
+    // encoded fields, which the scratch buffer grows to hold.
+    private long append(byte type, int maxLength, Consumer<ByteBuffer> fields) throws IOException {
+        long start = System.nanoTime();
+        long position;
+        synchronized (this) {
+            if (scratch.capacity() < 1 + maxLength) {
+                scratch = ByteBuffer.allocate(1 + maxLength);
+            }
+            scratch.clear();
+            scratch.put(type);
+            fields.accept(scratch);
+            int length = scratch.position();
+            crc.reset();
+            crc.update(scratch.array(), 0, length);
+
+            int offset = (int) (writePosition % SEGMENT_SIZE);
+            if (SEGMENT_SIZE - offset < HEADER_SIZE + length) {
+                if (SEGMENT_SIZE - offset >= Integer.BYTES) {
+                    segment(writePosition).putInt(offset, SKIP_TO_NEXT_SEGMENT);
+                }
+                writePosition += SEGMENT_SIZE - offset;
+                offset = 0;
+            }
+            MappedByteBuffer segment = segment(writePosition);
+            segment.put(offset + HEADER_SIZE, scratch.array(), 0, length);
+            segment.putInt(offset + Integer.BYTES, (int) crc.getValue());
+            segment.putInt(offset, length);
+            writePosition += HEADER_SIZE + length;
+            position = writePosition;
+        }
+        long elapsed = System.nanoTime() - start;
+        appends.increment();
+        appendNanos.add(elapsed);
+        maxAppendNanos.accumulate(elapsed);
+        return position;
+    }
+
+    private void awaitDurable(long position) throws IOException {
+        long from;
+        synchronized (flushLock) {
+            while (durablePosition < position && flushing) {
+                try {
+                    flushLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for journal sync.");
+                }
+            }
+            if (durablePosition >= position) {
+                return;
+            }
+            flushing = true;
+            from = durablePosition;
+        }
+
+        long target = from;
+        try {
+            List<MappedByteBuffer> dirty;
+            synchronized (this) {
+                target = writePosition;
+                dirty = new ArrayList<>(segments.subList((int) (from / SEGMENT_SIZE),
+                        (int) ((target - 1) / SEGMENT_SIZE) + 1));
+            }
+            long base = from / SEGMENT_SIZE * SEGMENT_SIZE;
+            for (MappedByteBuffer segment : dirty) {
+                int start = (int) (Math.max(from, base) - base);
+                int end = (int) (Math.min(target, base + SEGMENT_SIZE) - base);
+                segment.force(start, end - start);
+                base += SEGMENT_SIZE;
+            }
+            groupCommits.increment();
+        } catch (RuntimeException e) {
+            target = from;
+            throw e;
+        } finally {
+            synchronized (flushLock) {
+                durablePosition = target;
+                flushing = false;
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    private void replay(Handler handler, long fromPosition) throws IOException {
+        long start = System.nanoTime();
+        long position = fromPosition;
+        while (true) {
+            int offset = (int) (position % SEGMENT_SIZE);
+            if (SEGMENT_SIZE - offset < HEADER_SIZE) {
+                position += SEGMENT_SIZE - offset;
+                continue;
+            }
+            MappedByteBuffer segment = segment(position);
+            int length = segment.getInt(offset);
+            if (length == SKIP_TO_NEXT_SEGMENT) {
+                position += SEGMENT_SIZE - offset;
+                continue;
+            }
+            if (length <= 0 || length > SEGMENT_SIZE - offset - HEADER_SIZE) {
+                break;
+            }
+            ByteBuffer record = segment.slice(offset + HEADER_SIZE, length);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != segment.getInt(offset + Integer.BYTES)) {
+                break; // torn write at the tail of the log
+            }
+            try {
+                dispatch(record, handler);
+            } catch (InsufficientBalanceException | RuntimeException e) {
+                skippedRecords++;
+            }
+            replayedRecords++;
+            position += HEADER_SIZE + length;
+        }
+
+        // Clear whatever a crash left after the last good record so it can never be
+        // mistaken for a record once new appends land in front of it.
+        MappedByteBuffer tail = segment(position);
+        for (int i = (int) (position % SEGMENT_SIZE); i < SEGMENT_SIZE && tail.get(i) != 0; i++) {
+            tail.put(i, (byte) 0);
+        }
+        writePosition = position;
+        durablePosition = position;
+        replayNanos = System.nanoTime() - start;
+    }
+
+    private void dispatch(ByteBuffer record, Handler handler) throws InsufficientBalanceException {
+        byte type = record.get();
+        switch (type) {
+            case REGISTER:
+                handler.register(getString(record), getString(record), record.getLong());
+                break;
+            case DEPOSIT:
+                handler.deposit(getString(record), record.getLong());
+                break;
+            case PLACE_BET:
+                String username = getString(record);
+                String gameId = getString(record);
+                String outcome = getString(record);
+                long cents = record.getLong();
+                long placedAt = record.getLong();
+                long catalogVersion = record.getLong();
+                handler.placeBet(username, new Bet(gameId, outcome, BalanceLedger.toAmount(cents), placedAt, catalogVersion));
+                break;
+            case ADD_GAME:
+                String newGameId = getString(record);
+                String gameName = getString(record);
+                List<String> outcomes = new ArrayList<>();
+                int outcomeCount = record.getShort() & 0xFFFF;
+                for (int i = 0; i < outcomeCount; i++) {
+                    outcomes.add(getString(record));
+                }
+                handler.addGame(newGameId, gameName, outcomes);
+                break;
+            case REMOVE_GAME:
+                handler.removeGame(getString(record));
+                break;
+            case SETTLE_GAME:
+                handler.settleGame(getString(record), getString(record));
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type: " + type);
+        }
+    }
+
+    private MappedByteBuffer segment(long position) throws IOException {
+        int index = (int) (position / SEGMENT_SIZE);
+        while (segments.size() <= index) {
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+        }
+        return segments.get(index);
+    }
+
+    // At most the encoded size: UTF-8 takes no more than three bytes per char.
+    private static int size(String value) {
+        if (value.length() > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("Value is too long to journal.");
+        }
+        int bytes = Short.BYTES + value.length();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            bytes += c >= 0x800 ? 2 : c >= 0x80 ? 1 : 0;
+        }
+        return bytes;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("Value is too long to journal.");
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+// Rebuilds the in-memory betting state from journal records on startup.
+class JournalReplayer implements BettingJournal.Handler {
+    private final BettingEngine engine;
+    private final AdminUser admin;
+    private final GameSettlement settlement;
+
+    public JournalReplayer(BettingEngine engine, AdminUser admin, GameSettlement settlement) {
+        this.engine = engine;
+        this.admin = admin;
+        this.settlement = settlement;
+    }
+
+    @Override
+    public void register(String username, String passwordHash, long balanceCents) {
+        engine.restoreUser(RegularUser.restore(username, passwordHash, balanceCents, admin.getContext()));
+    }
+
+    @Override
+    public void deposit(String username, long cents) {
+        user(username).creditCents(cents);
+    }
+
+    @Override
+    public void placeBet(String username, Bet bet) throws InsufficientBalanceException {
+        user(username).recordBet(bet);
+    }
+
+    @Override
+    public void addGame(String gameId, String gameName, List<String> outcomes) {
+        admin.putGame(new Game(gameId, gameName, outcomes));
+    }
+
+    @Override
+    public void removeGame(String gameId) {
+        admin.deleteGame(gameId);
+    }
+
+    @Override
+    public void settleGame(String gameId, String winningOutcome) {
+        settlement.settle(gameId, winningOutcome);
+    }
+
+    private RegularUser user(String username) {
+        RegularUser user = engine.findUser(username);
+        if (user == null) {
+            throw new IllegalStateException("Journal refers to unknown user " + username);
+        }
+        return user;
+    }
+}
+
+// Bounded multi-producer single-consumer ring buffer. Producers claim a slot with
+// one CAS on the tail; each slot's sequence number tells the consumer when the
+// element is published and tells producers when the slot is free again.
+class MpscQueue<E> {
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    public MpscQueue(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two.");
+        }
+        this.elements = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public boolean offer(E element) {
+        long position;
+        while (true) {
+            position = tail.get();
+            long available = sequences.get((int) position & mask) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (available < 0) {
+                return false;
+            }
+        }
+        int slot = (int) position & mask;
+        elements.lazySet(slot, element);
+        sequences.set(slot, position + 1);
+        return true;
+    }
+
+    // Only ever called from the owning consumer thread.
+    public E poll() {
+        long position = head;
+        int slot = (int) position & mask;
+        if (sequences.get(slot) != position + 1) {
+            return null;
+        }
+        E element = elements.get(slot);
+        elements.lazySet(slot, null);
+        sequences.set(slot, position + mask + 1);
+        head = position + 1;
+        return element;
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
+
+// One writer thread that owns a slice of the users. Everything that touches those
+// users runs here, so the user objects need no locks. Commands are applied in
+// batches and the journal is synced once per batch before any of them completes.
+class BettingShard implements Runnable {
+    interface Task<T> {
+        T apply(BettingShard shard) throws Exception;
+    }
+
+    private static final int BATCH_SIZE = 256;
+    private static final int SPINS_BEFORE_PARK = 100;
+
+    private static class Command<T> {
+        final Task<T> task;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+        Throwable failure;
+
+        Command(Task<T> task) {
+            this.task = task;
+        }
+
+        void apply(BettingShard shard) {
+            try {
+                result = task.apply(shard);
+            } catch (Throwable t) {
+                failure = t;
+            }
+        }
+
+        void complete(Throwable syncFailure) {
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else if (syncFailure != null) {
+                future.completeExceptionally(syncFailure);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+
+    private final Map<String, RegularUser> users = new HashMap<>();
+    private final MpscQueue<Command<?>> queue;
+    private final int queueCapacity;
+    private final Thread thread;
+    private volatile BettingJournal journal;
+    private volatile boolean running = true;
+    private volatile boolean parked;
+    private long pendingPosition;
+
+    public BettingShard(int index, int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        this.queue = new MpscQueue<>(queueCapacity);
+        this.thread = new Thread(this, "betting-shard-" + index);
+        this.thread.setDaemon(true);
+    }
+
+    void start(BettingJournal journal) {
+        this.journal = journal;
+        thread.start();
+    }
+
+    void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    public <T> CompletableFuture<T> submit(Task<T> task) {
+        Command<T> command = new Command<>(task);
+        if (!queue.offer(command)) {
+            command.future.completeExceptionally(new RejectedExecutionException("Shard queue is full."));
+            return command.future;
+        }
+        if (parked) {
+            LockSupport.unpark(thread);
+        }
+        return command.future;
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public int queueCapacity() {
+        return queueCapacity;
+    }
+
+    public RegularUser user(String username) {
+        RegularUser user = users.get(username);
+        if (user == null) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        return user;
+    }
+
+    public boolean hasUser(String username) {
+        return users.containsKey(username);
+    }
+
+    public void addUser(RegularUser user) {
+        if (users.putIfAbsent(user.getUsername(), user) != null) {
+            throw new IllegalArgumentException("Username already taken.");
+        }
+    }
+
+    BettingJournal journal() {
+        return journal;
+    }
+
+    void logged(long position) {
+        pendingPosition = Math.max(pendingPosition, position);
+    }
+
+    void restore(RegularUser user) {
+        users.put(user.getUsername(), user);
+    }
+
+    RegularUser find(String username) {
+        return users.get(username);
+    }
+
+    List<BettingSnapshot.UserImage> capture(BettingContext context) {
+        List<BettingSnapshot.UserImage> images = new ArrayList<>(users.size());
+        for (RegularUser user : users.values()) {
+            images.add(new BettingSnapshot.UserImage(user.getUsername(), user.getPasswordHash(),
+                    user.getBalanceCents(), context.byStake.score(user.getAccount()),
+                    context.byNetWinnings.score(user.getAccount()), user.historyColumns()));
+        }
+        return images;
+    }
+
+    @Override
+    public void run() {
+        Command<?>[] batch = new Command<?>[BATCH_SIZE];
+        int idleSpins = 0;
+        while (true) {
+            int count = 0;
+            Command<?> command;
+            while (count < BATCH_SIZE && (command = queue.poll()) != null) {
+                batch[count++] = command;
+            }
+            if (count == 0) {
+                if (!running) {
+                    return;
+                }
+                if (++idleSpins < SPINS_BEFORE_PARK) {
+                    Thread.onSpinWait();
+                } else {
+                    parked = true;
+                    if (queue.isEmpty() && running) {
+                        LockSupport.parkNanos(this, 10_000_000L);
+                    }
+                    parked = false;
+                    idleSpins = 0;
+                }
+                continue;
+            }
+            idleSpins = 0;
+
+            for (int i = 0; i < count; i++) {
+                batch[i].apply(this);
+            }
+            Throwable syncFailure = null;
+            if (pendingPosition > 0) {
+                try {
+                    journal.sync(pendingPosition);
+                } catch (IOException | RuntimeException e) {
+                    syncFailure = e;
+                }
+                pendingPosition = 0;
+            }
+            for (int i = 0; i < count; i++) {
+                batch[i].complete(syncFailure);
+                batch[i] = null;
+            }
+        }
+    }
+}
+
+// Admission control in front of bet placement: load shedding when the shards as a
+// whole are backed up, then a per-user rate limit. Each user's bucket is one long holding
+// its theoretical arrival time (GCRA, equivalent to a token bucket), updated with a CAS.
+// A bucket whose arrival time has passed is full again, so idle buckets can be
+// dropped without losing anything.
+class AdmissionControl {
+    private static final long SWEEP_INTERVAL_MILLIS = 1_000;
+    // Written by the sweeper into a bucket it is about to drop; a bettor that finds it
+    // looks the bucket up again instead of spending a token nobody will remember.
+    private static final long EVICTED = Long.MIN_VALUE;
+
+    private final long intervalNanos;
+    private final long burstToleranceNanos;
+    private final double maxQueueFill;
+    private final long origin = System.nanoTime();
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final ScheduledExecutorService sweeper;
+
+    public AdmissionControl(double betsPerSecond, int burst, double maxQueueFill) {
+        if (betsPerSecond <= 0 || burst <= 0 || maxQueueFill <= 0 || maxQueueFill > 1) {
+            throw new IllegalArgumentException("Invalid admission control limits.");
+        }
+        this.intervalNanos = (long) (1_000_000_000L / betsPerSecond);
+        this.burstToleranceNanos = intervalNanos * (burst - 1);
+        this.maxQueueFill = maxQueueFill;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "admission-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::evictIdle, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Returns null when the bet may proceed. queued and capacity cover every shard, so
+    // shedding starts when the system as a whole falls behind; one hot shard filling up
+    // is still turned away by its own bounded queue.
+    public BetRejectedException admit(String username, long queued, long capacity) {
+        if (queued > capacity * maxQueueFill) {
+            shed.increment();
+            return BetRejectedException.OVERLOADED;
+        }
+        AtomicLong bucket = buckets.computeIfAbsent(username, key -> new AtomicLong());
+        long now = System.nanoTime() - origin;
+        while (true) {
+            long arrival = bucket.get();
+            if (arrival == EVICTED) {
+                buckets.remove(username, bucket);
+                bucket = buckets.computeIfAbsent(username, key -> new AtomicLong());
+                continue;
+            }
+            if (arrival - now > burstToleranceNanos) {
+                rateLimited.increment();
+                return BetRejectedException.RATE_LIMITED;
+            }
+            if (bucket.compareAndSet(arrival, Math.max(arrival, now) + intervalNanos)) {
+                return null;
+            }
+        }
+    }
+
+    public int activeBuckets() {
+        return buckets.size();
+    }
+
+    public long getRateLimited() {
+        return rateLimited.sum();
+    }
+
+    public long getShed() {
+        return shed.sum();
+    }
+
+    void evictIdle() {
+        long now = System.nanoTime() - origin;
+        for (Map.Entry<String, AtomicLong> entry : buckets.entrySet()) {
+            AtomicLong bucket = entry.getValue();
+            long arrival = bucket.get();
+            if (arrival <= now && bucket.compareAndSet(arrival, EVICTED)) {
+                buckets.remove(entry.getKey(), bucket);
+            }
+        }
+    }
+
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Admission control: %d active buckets, %d rate limited, %d shed",
+                activeBuckets(), getRateLimited(), getShed());
+    }
+}
+
+// Routes every user command to the shard that owns the user, picked by username hash.
+// Catalog changes and settlement are rare and run on the caller's thread, one at a time.
+class BettingEngine implements Closeable {
+    private final BettingShard[] shards;
+    private final AdminUser admin;
+    private final GameSettlement settlement;
+    private final AdmissionControl admission;
+    private final BettingContext context;
+    private final long queueCapacity;
+    private final Object adminLock = new Object();
+    private volatile BettingJournal journal;
+    private volatile boolean started;
+
+    public BettingEngine(int shardCount, int queueCapacity, AdminUser admin, GameSettlement settlement) {
+        this(shardCount, queueCapacity, admin, settlement, null);
+    }
+
+    public BettingEngine(int shardCount, int queueCapacity, AdminUser admin, GameSettlement settlement,
+                         AdmissionControl admission) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive.");
+        }
+        this.shards = new BettingShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new BettingShard(i, queueCapacity);
+        }
+        this.admin = admin;
+        this.settlement = settlement;
+        this.admission = admission;
+        this.context = admin.getContext();
+        this.queueCapacity = (long) shardCount * queueCapacity;
+    }
+
+    public void start(BettingJournal journal) {
+        this.journal = journal;
+        started = true;
+        for (BettingShard shard : shards) {
+            shard.start(journal);
+        }
+    }
+
+    public CompletableFuture<RegularUser> register(String username, String password, double balance) {
+        return shardFor(username).submit(shard -> {
+            if (shard.hasUser(username)) {
+                throw new IllegalArgumentException("Username already taken.");
+            }
+            RegularUser user = new RegularUser(username, password, balance, context);
+            log(shard, journal -> journal.logRegister(username, user.getPasswordHash(), user.getBalanceCents()));
+            shard.addUser(user);
+            return user;
+        });
+    }
+
+    public CompletableFuture<Double> deposit(String username, double amount) {
+        return shardFor(username).submit(shard -> {
+            RegularUser user = shard.user(username);
+            long cents = User.depositCents(amount);
+            log(shard, journal -> journal.logDeposit(username, cents));
+            user.creditCents(cents);
+            return user.getBalance();
+        });
+    }
+
+    public CompletableFuture<Bet> placeBet(String username, String gameId, String outcome, double amount) {
+        BettingShard owner = shardFor(username);
+        if (admission != null) {
+            BetRejectedException rejection = admission.admit(username, queuedCommands(), queueCapacity);
+            if (rejection != null) {
+                return CompletableFuture.failedFuture(rejection);
+            }
+        }
+        return owner.submit(shard -> {
+            RegularUser user = shard.user(username);
+            CatalogSnapshot catalog = admin.getCatalog();
+            Game game = catalog.getGame(gameId);
+            if (game == null) {
+                throw new IllegalArgumentException("Game ID not found.");
+            }
+            if (!game.acceptsOutcome(outcome)) {
+                throw new IllegalArgumentException("Outcome must be one of " + game.getOutcomes() + ".");
+            }
+            Bet bet = new Bet(gameId, outcome, amount, System.currentTimeMillis(), catalog.getVersion());
+            user.recordBet(bet, () -> log(shard, journal -> journal.logBet(username, bet)));
+            return bet;
+        });
+    }
+
+    public CompletableFuture<BetHistory.Cursor> history(String username, int page, int pageSize) {
+        return shardFor(username).submit(shard -> shard.user(username).viewBetHistory(page, pageSize));
+    }
+
+    public CompletableFuture<Boolean> hasUser(String username) {
+        return shardFor(username).submit(shard -> shard.hasUser(username));
+    }
+
+    public CatalogSnapshot getCatalog() {
+        return admin.getCatalog();
+    }
+
+    public BettingContext getContext() {
+        return context;
+    }
+
+    public void addGame(String gameId, String gameName, List<String> outcomes) throws IOException {
+        synchronized (adminLock) {
+            Game game = new Game(gameId, gameName, outcomes);
+            if (admin.getCatalog().contains(gameId)) {
+                throw new IllegalArgumentException("Game ID already exists.");
+            }
+            // Durable before it is published, so no bet on it can be logged ahead of it.
+            if (journal != null) {
+                journal.sync(journal.logAddGame(game));
+            }
+            admin.putGame(game);
+        }
+    }
+
+    public void removeGame(String gameId) throws IOException {
+        synchronized (adminLock) {
+            admin.deleteGame(gameId);
+            // As for settlement: a bet checked against the old catalog may still be
+            // writing its record, and replay must meet it before the removal.
+            awaitAllShards();
+            if (journal != null) {
+                journal.sync(journal.logRemoveGame(gameId));
+            }
+        }
+    }
+
+    public SettlementReport settleGame(String gameId, String winningOutcome) throws IOException {
+        synchronized (adminLock) {
+            Game game = admin.getCatalog().getGame(gameId);
+            if (game == null) {
+                throw new IllegalArgumentException("Game ID not found.");
+            }
+            if (!game.acceptsOutcome(winningOutcome)) {
+                throw new IllegalArgumentException("Outcome must be one of " + game.getOutcomes() + ".");
+            }
+            SettlementReport report = settlement.settle(gameId, winningOutcome);
+            // A bet recorded just before the book closed may still be writing its journal
+            // record; one pass through every shard guarantees it lands before the settlement.
+            awaitAllShards();
+            if (journal != null) {
+                journal.sync(journal.logSettleGame(gameId, winningOutcome));
+            }
+            return report;
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    public int queueDepth(int shard) {
+        return shards[shard].queueDepth();
+    }
+
+    public int[] queueDepths() {
+        int[] depths = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            depths[i] = shards[i].queueDepth();
+        }
+        return depths;
+    }
+
+    // Commands waiting across all shards. Each depth is two volatile reads, so the
+    // global gauge costs no shared write on the bet path.
+    public long queuedCommands() {
+        long queued = 0;
+        for (BettingShard shard : shards) {
+            queued += shard.queueDepth();
+        }
+        return queued;
+    }
+
+    // Used by journal replay, before the shard threads are running.
+    void restoreUser(RegularUser user) {
+        checkNotStarted();
+        shardFor(user.getUsername()).restore(user);
+    }
+
+    RegularUser findUser(String username) {
+        checkNotStarted();
+        return shardFor(username).find(username);
+    }
+
+    @Override
+    public void close() {
+        if (admission != null) {
+            admission.close();
+        }
+        try {
+            for (BettingShard shard : shards) {
+                shard.stop();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface JournalWrite {
+        long write(BettingJournal journal) throws IOException;
+    }
+
+    private static void log(BettingShard shard, JournalWrite write) throws IOException {
+        BettingJournal journal = shard.journal();
+        if (journal != null) {
+            shard.logged(write.write(journal));
+        }
+    }
+
+    public BettingSnapshot.Report snapshot(Path path) throws IOException {
+        synchronized (adminLock) {
+            long start = System.nanoTime();
+            BettingSnapshot.Image image = capture();
+            long captureNanos = System.nanoTime() - start;
+            if (journal != null) {
+                journal.sync(image.journalPosition);
+            }
+            long bytes = BettingSnapshot.write(path, image, context);
+            return new BettingSnapshot.Report("Snapshot written", image.userCount(), image.betCount(), bytes,
+                    image.journalPosition, System.nanoTime() - start, captureNanos);
+        }
+    }
+
+    // Parks every shard at the same point so users, balances, the settled books and
+    // the journal position all describe one instant. Holding the history columns is
+    // enough to freeze them; the expensive file write happens after the shards resume.
+    private BettingSnapshot.Image capture() {
+        CountDownLatch captured = new CountDownLatch(shards.length);
+        CountDownLatch release = new CountDownLatch(1);
+        List<CompletableFuture<List<BettingSnapshot.UserImage>>> images = new ArrayList<>();
+        BettingSnapshot.Image image;
+        try {
+            for (BettingShard shard : shards) {
+                images.add(submitUntilAccepted(shard, owner -> {
+                    List<BettingSnapshot.UserImage> users = owner.capture(context);
+                    captured.countDown();
+                    release.await();
+                    return users;
+                }));
+            }
+            captured.await();
+            image = new BettingSnapshot.Image(journal == null ? 0 : journal.position(), admin.getCatalog(),
+                    context.index.settledGames());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while capturing a snapshot.");
+        } finally {
+            release.countDown();
+        }
+        for (CompletableFuture<List<BettingSnapshot.UserImage>> users : images) {
+            image.users.addAll(users.join());
+        }
+        return image;
+    }
+
+    // Waits for a command and rethrows its own failure. A future that is already failed,
+    // such as an admission rejection, is unwrapped without join(), whose
+    // CompletionException would capture the stack trace the shared rejections avoid.
+    static <T> T await(CompletableFuture<T> future) throws Exception {
+        Throwable failure;
+        if (future.isCompletedExceptionally()) {
+            failure = future.handle((result, error) -> error).getNow(null);
+        } else {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                failure = e;
+            }
+        }
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if (failure instanceof Exception) {
+            throw (Exception) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new IllegalStateException(failure);
+    }
+
+    private static <T> CompletableFuture<T> submitUntilAccepted(BettingShard shard, BettingShard.Task<T> task) {
+        CompletableFuture<T> future;
+        do {
+            future = shard.submit(task);
+        } while (isRejected(future) && !Thread.currentThread().isInterrupted());
+        return future;
+    }
+
+    private static boolean isRejected(CompletableFuture<?> future) {
+        return future.isCompletedExceptionally()
+                && future.handle((result, error) -> error instanceof RejectedExecutionException).join();
+    }
+
+    private void awaitAllShards() {
+        CompletableFuture<?>[] barriers = new CompletableFuture<?>[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            barriers[i] = submitUntilAccepted(shards[i], shard -> null);
+        }
+        CompletableFuture.allOf(barriers).join();
+    }
+
+    private BettingShard shardFor(String username) {
+        int hash = username.hashCode();
+        return shards[Math.floorMod(hash ^ (hash >>> 16), shards.length)];
+    }
+
+    private void checkNotStarted() {
+        if (started) {
+            throw new IllegalStateException("Engine is already running.");
+        }
+    }
+}
+
+// Local HTTP API over the engine. Handlers block on the shard futures, which is cheap
+// on virtual threads; on JDKs without them a fixed pool of platform threads is used.
+// All user updates still go through the owning shard, so they stay serialized.
+class BettingHttpServer {
+    private final HttpServer server;
+    private final BettingEngine engine;
+    private final ExecutorService executor;
+
+    public BettingHttpServer(BettingEngine engine, int port) throws IOException {
+        this.engine = engine;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/users", exchange -> handle(exchange, "POST", this::register));
+        server.createContext("/deposits", exchange -> handle(exchange, "POST", this::deposit));
+        server.createContext("/bets", exchange -> handle(exchange, exchange.getRequestMethod(), this::bets));
+        server.createContext("/games", exchange -> handle(exchange, exchange.getRequestMethod(), this::games));
+        server.createContext("/settlements", exchange -> handle(exchange, "POST", this::settle));
+        server.createContext("/odds", exchange -> handle(exchange, "GET", this::odds));
+        server.createContext("/leaderboard", exchange -> handle(exchange, "GET", this::leaderboard));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(16, Runtime.getRuntime().availableProcessors() * 8));
+        }
+    }
+
+    private interface Route {
+        String handle(String method, Map<String, String> params) throws Exception;
+    }
+
+    private static class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
 
-    public User(String username, String password, double balance) {
-        if (password.length() < 8 || !password.matches(".*\\d.*")) {
-            throw new IllegalArgumentException("Password must be at least 8 characters long and contain a number.");
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
         }
-        this.username = username;
-        this.password = password;
-        this.balance = balance;
     }
 
-    public boolean login(String username, String password) {
-        return this.username.equals(username) && this.password.equals(password);
+    private void handle(HttpExchange exchange, String allowedMethod, Route route) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals(allowedMethod)) {
+                throw new HttpError(405, "Method not allowed.");
+            }
+            body = route.handle(method, params(exchange));
+        } catch (Exception e) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            status = statusFor(cause);
+            body = "{\"error\":" + quote(cause.getMessage()) + "}";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
     }
 
-    public void deposit(double amount) {
-        if (amount <= 0) {
-            throw new IllegalArgumentException("Deposit amount must be positive.");
+    private String register(String method, Map<String, String> params) throws Exception {
+        RegularUser user = BettingEngine.await(engine.register(required(params, "username"),
+                required(params, "password"), number(params, "balance")));
+        return "{\"username\":" + quote(user.getUsername()) + ",\"balance\":" + user.getBalance() + "}";
+    }
+
+    private String deposit(String method, Map<String, String> params) throws Exception {
+        String username = required(params, "username");
+        double balance = BettingEngine.await(engine.deposit(username, number(params, "amount")));
+        return "{\"username\":" + quote(username) + ",\"balance\":" + balance + "}";
+    }
+
+    private String bets(String method, Map<String, String> params) throws Exception {
+        String username = required(params, "username");
+        if (method.equals("POST")) {
+            Bet bet = BettingEngine.await(engine.placeBet(username, required(params, "gameId"),
+                    required(params, "outcome"), number(params, "amount")));
+            return betJson(bet.getGameId(), bet.getOutcome(), bet.getAmount(), bet.getPlacedAt());
         }
-        this.balance += amount;
+        if (!method.equals("GET")) {
+            throw new HttpError(405, "Method not allowed.");
+        }
+        int page = (int) number(params, "page", 0);
+        int size = (int) number(params, "size", 100);
+        BetHistory.Cursor cursor = BettingEngine.await(engine.history(username, page, size));
+        StringBuilder json = new StringBuilder("{\"username\":").append(quote(username)).append(",\"bets\":[");
+        boolean first = true;
+        while (cursor.next()) {
+            if (!first) {
+                json.append(',');
+            }
+            json.append(betJson(cursor.getGameId(), cursor.getOutcome(), cursor.getAmount(), cursor.getPlacedAt()));
+            first = false;
+        }
+        return json.append("]}").toString();
     }
 
-    public double getBalance() {
-        return balance;
+    private String games(String method, Map<String, String> params) throws Exception {
+        switch (method) {
+            case "GET":
+                CatalogSnapshot catalog = engine.getCatalog();
+                StringBuilder json = new StringBuilder("{\"version\":").append(catalog.getVersion()).append(",\"games\":[");
+                boolean first = true;
+                for (Game game : catalog.getGames().values()) {
+                    if (!first) {
+                        json.append(',');
+                    }
+                    json.append("{\"gameId\":").append(quote(game.getGameId()))
+                            .append(",\"gameName\":").append(quote(game.getGameName()))
+                            .append(",\"addedVersion\":").append(catalog.getAddedVersion(game.getGameId()))
+                            .append(",\"outcomes\":[");
+                    List<String> outcomes = game.getOutcomes();
+                    for (int i = 0; i < outcomes.size(); i++) {
+                        if (i > 0) {
+                            json.append(',');
+                        }
+                        json.append(quote(outcomes.get(i)));
+                    }
+                    json.append("]}");
+                    first = false;
+                }
+                return json.append("]}").toString();
+            case "POST":
+                engine.addGame(required(params, "gameId"), required(params, "gameName"),
+                        outcomes(params.getOrDefault("outcomes", "")));
+                return "{\"gameId\":" + quote(params.get("gameId")) + "}";
+            case "DELETE":
+                engine.removeGame(required(params, "gameId"));
+                return "{\"gameId\":" + quote(params.get("gameId")) + "}";
+            default:
+                throw new HttpError(405, "Method not allowed.");
+        }
     }
 
-    public void deductBalance(double amount) throws InsufficientBalanceException {
-        if (amount > balance) {
-            throw new InsufficientBalanceException("Insufficient balance.");
+    private String settle(String method, Map<String, String> params) throws Exception {
+        SettlementReport report = engine.settleGame(required(params, "gameId"), required(params, "outcome"));
+        return "{\"bets\":" + report.getBets() + ",\"winners\":" + report.getWinners()
+                + ",\"pool\":" + BalanceLedger.toAmount(report.getPoolCents())
+                + ",\"paid\":" + BalanceLedger.toAmount(report.getPaidCents()) + "}";
+    }
+
+    private String odds(String method, Map<String, String> params) {
+        OddsQuote quote = engine.getContext().odds.quote(required(params, "gameId"));
+        StringBuilder json = new StringBuilder("{\"gameId\":").append(quote(quote.getGameId()))
+                .append(",\"version\":").append(quote.getVersion())
+                .append(",\"pool\":").append(BalanceLedger.toAmount(quote.getTotalCents()))
+                .append(",\"outcomes\":[");
+        for (int i = 0; i < quote.getOutcomes().size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"outcome\":").append(quote(quote.getOutcomes().get(i)))
+                    .append(",\"pool\":").append(BalanceLedger.toAmount(quote.getPoolCents(i)))
+                    .append(",\"odds\":").append(quote.getOdds(i)).append('}');
         }
-        balance -= amount;
+        return json.append("]}").toString();
     }
-}
 
-class RegularUser extends User {
-    private List<Bet> betHistory;
+    private String leaderboard(String method, Map<String, String> params) {
+        Leaderboard board = params.getOrDefault("metric", "stake").equals("net")
+                ? engine.getContext().byNetWinnings : engine.getContext().byStake;
+        StringBuilder json = new StringBuilder("{\"metric\":").append(quote(board.getMetric()));
+        String username = params.get("username");
+        if (username != null) {
+            json.append(",\"rank\":").append(board.rank(username));
+        }
+        json.append(",\"top\":[");
+        boolean first = true;
+        for (Leaderboard.Standing standing : board.top((int) number(params, "limit", 10))) {
+            if (!first) {
+                json.append(',');
+            }
+            json.append("{\"rank\":").append(standing.getRank())
+                    .append(",\"username\":").append(quote(standing.getUsername()))
+                    .append(",\"score\":").append(BalanceLedger.toAmount(standing.getScoreCents())).append('}');
+            first = false;
+        }
+        return json.append("]}").toString();
+    }
 
-    public RegularUser(String username, String password, double balance) {
-        super(username, password, balance);
-        this.betHistory = new ArrayList<>();
+    static List<String> outcomes(String commaSeparated) {
+        List<String> outcomes = new ArrayList<>();
+        for (String outcome : commaSeparated.split(",")) {
+            if (!outcome.trim().isEmpty()) {
+                outcomes.add(outcome.trim());
+            }
+        }
+        return outcomes;
     }
 
-    public void placeBet(Bet bet) throws InsufficientBalanceException {
-        deductBalance(bet.getAmount());
-        betHistory.add(bet);
-        System.out.println("Bet placed successfully!");
+    private static String betJson(String gameId, String outcome, double amount, long placedAt) {
+        return "{\"gameId\":" + quote(gameId) + ",\"outcome\":" + quote(outcome)
+                + ",\"amount\":" + amount + ",\"placedAt\":" + placedAt + "}";
     }
 
-    public List<Bet> viewBetHistory() {
-        return betHistory;
+    private static int statusFor(Throwable error) {
+        if (error instanceof HttpError) {
+            return ((HttpError) error).status;
+        }
+        if (error instanceof IllegalArgumentException) {
+            return 400;
+        }
+        if (error instanceof InsufficientBalanceException || error instanceof IllegalStateException) {
+            return 409;
+        }
+        if (error instanceof BetRejectedException) {
+            return ((BetRejectedException) error).getReason() == BetRejectedException.Reason.RATE_LIMITED ? 429 : 503;
+        }
+        if (error instanceof RejectedExecutionException) {
+            return 503;
+        }
+        return 500;
     }
-}
 
-class AdminUser extends User {
-    private Map<String, Game> games;
+    private static Map<String, String> params(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        try (InputStream in = exchange.getRequestBody()) {
+            parseForm(new String(in.readAllBytes(), StandardCharsets.UTF_8), params);
+        }
+        return params;
+    }
 
-    public AdminUser(String username, String password, double balance) {
-        super(username, password, balance);
-        this.games = new HashMap<>();
+    private static void parseForm(String form, Map<String, String> params) {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
     }
 
-    public void addGame(Game game) {
-        if (games.containsKey(game.getGameId())) {
-            throw new IllegalArgumentException("Game ID already exists.");
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
         }
-        games.put(game.getGameId(), game);
-        System.out.println("Game added successfully!");
+        return value;
     }
 
-    public void removeGame(String gameId) {
-        if (!games.containsKey(gameId)) {
-            throw new IllegalArgumentException("Game ID does not exist.");
+    private static double number(Map<String, String> params, String name) {
+        try {
+            return Double.parseDouble(required(params, name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a number.");
         }
-        games.remove(gameId);
-        System.out.println("Game removed successfully!");
     }
 
-    public Map<String, Game> getGames() {
-        return games;
+    private static double number(Map<String, String> params, String name, double defaultValue) {
+        return params.containsKey(name) ? number(params, name) : defaultValue;
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
     }
 }
 
-class Bet {
-    private String gameId;
-    private double amount;
+// Binary point-in-time image of the betting state: catalog, settled books, string
+// dictionaries and every user with balance and raw history columns. Columns are
+// written and read in bulk through a FileChannel. Open game books are not stored;
+// restore rebuilds them from the histories.
+class BettingSnapshot {
+    private static final long MAGIC = 0x42_45_54_53_4E_41_50_31L; // "BETSNAP1"
+    private static final int BUFFER_SIZE = 8 << 20;
 
-    public Bet(String gameId, double amount) {
-        this.gameId = gameId;
-        this.amount = amount;
+    static class UserImage {
+        final String username;
+        final String passwordHash;
+        final long balanceCents;
+        final long stakeCents;
+        final long netWinningsCents;
+        final BetHistory.Columns history;
+
+        UserImage(String username, String passwordHash, long balanceCents, long stakeCents, long netWinningsCents,
+                  BetHistory.Columns history) {
+            this.username = username;
+            this.passwordHash = passwordHash;
+            this.balanceCents = balanceCents;
+            this.stakeCents = stakeCents;
+            this.netWinningsCents = netWinningsCents;
+            this.history = history;
+        }
     }
 
-    public String getGameId() {
-        return gameId;
+    static class Image {
+        final long journalPosition;
+        final CatalogSnapshot catalog;
+        final List<GameExposure> settledGames;
+        final List<UserImage> users = new ArrayList<>();
+
+        Image(long journalPosition, CatalogSnapshot catalog, List<GameExposure> settledGames) {
+            this.journalPosition = journalPosition;
+            this.catalog = catalog;
+            this.settledGames = settledGames;
+        }
+
+        int userCount() {
+            return users.size();
+        }
+
+        long betCount() {
+            long bets = 0;
+            for (UserImage user : users) {
+                bets += user.history.size;
+            }
+            return bets;
+        }
     }
 
-    public double getAmount() {
-        return amount;
+    static class Report {
+        private final String action;
+        private final long users;
+        private final long bets;
+        private final long bytes;
+        private final long journalPosition;
+        private final long elapsedNanos;
+        private final long pauseNanos;
+
+        Report(String action, long users, long bets, long bytes, long journalPosition, long elapsedNanos, long pauseNanos) {
+            this.action = action;
+            this.users = users;
+            this.bets = bets;
+            this.bytes = bytes;
+            this.journalPosition = journalPosition;
+            this.elapsedNanos = elapsedNanos;
+            this.pauseNanos = pauseNanos;
+        }
+
+        public long getJournalPosition() {
+            return journalPosition;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d users, %d bets, %.1f MB in %.1f ms (%.0f bets/s%s)",
+                    action, users, bets, bytes / 1_048_576.0, elapsedNanos / 1_000_000.0,
+                    elapsedNanos == 0 ? 0 : bets * 1_000_000_000.0 / elapsedNanos,
+                    pauseNanos == 0 ? "" : String.format(", shards paused %.1f ms", pauseNanos / 1_000_000.0));
+        }
+    }
+
+    static long write(Path path, Image image, BettingContext context) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        long bytes;
+        try (Output out = new Output(FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            out.putLong(MAGIC);
+            out.putLong(image.journalPosition);
+            writeDictionary(out, context.gameIds);
+            writeDictionary(out, context.outcomes);
+
+            out.putLong(image.catalog.getVersion());
+            out.putInt(image.catalog.getGames().size());
+            for (Game game : image.catalog.getGames().values()) {
+                out.putString(game.getGameId());
+                out.putString(game.getGameName());
+                out.putInt(game.getOutcomes().size());
+                for (String outcome : game.getOutcomes()) {
+                    out.putString(outcome);
+                }
+                out.putLong(image.catalog.getAddedVersion(game.getGameId()));
+            }
+
+            out.putInt(image.settledGames.size());
+            for (GameExposure game : image.settledGames) {
+                out.putString(game.getGameId());
+                out.putLong(game.getStakeCents());
+                out.putLong(game.getBetCount());
+                out.putLong(game.getLargestBetCents());
+            }
+
+            out.putInt(image.users.size());
+            for (UserImage user : image.users) {
+                BetHistory.Columns history = user.history;
+                out.putString(user.username);
+                out.putString(user.passwordHash);
+                out.putLong(user.balanceCents);
+                out.putLong(user.stakeCents);
+                out.putLong(user.netWinningsCents);
+                out.putInt(history.size);
+                out.putInts(history.gameIds, history.size);
+                out.putInts(history.outcomes, history.size);
+                out.putLongs(history.cents, history.size);
+                out.putLongs(history.placedAt, history.size);
+                out.putLongs(history.catalogVersions, history.size);
+            }
+            bytes = out.finish();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return bytes;
+    }
+
+    // Loads a snapshot into a fresh engine (before it starts) and returns the journal
+    // position to resume replay from.
+    static Report restore(Path path, BettingEngine engine, AdminUser admin) throws IOException {
+        BettingContext context = admin.getContext();
+        GameBetIndex index = context.index;
+        long start = System.nanoTime();
+        List<RegularUser> users;
+        long bets = 0;
+        long journalPosition;
+        try (Input in = new Input(FileChannel.open(path, StandardOpenOption.READ))) {
+            if (in.getLong() != MAGIC) {
+                throw new IOException("Not a betting snapshot: " + path);
+            }
+            journalPosition = in.getLong();
+            int[] gameCodes = readDictionary(in, context.gameIds);
+            int[] outcomeCodes = readDictionary(in, context.outcomes);
+
+            long catalogVersion = in.getLong();
+            int gameCount = in.getInt();
+            Map<String, Game> games = new HashMap<>();
+            Map<String, Long> addedVersions = new HashMap<>();
+            for (int i = 0; i < gameCount; i++) {
+                String gameId = in.getString();
+                String gameName = in.getString();
+                List<String> outcomes = new ArrayList<>();
+                int outcomeCount = in.getInt();
+                for (int j = 0; j < outcomeCount; j++) {
+                    outcomes.add(in.getString());
+                }
+                Game game = new Game(gameId, gameName, outcomes);
+                games.put(game.getGameId(), game);
+                addedVersions.put(game.getGameId(), in.getLong());
+            }
+            admin.restoreCatalog(new CatalogSnapshot(catalogVersion, games, addedVersions));
+
+            int settledCount = in.getInt();
+            for (int i = 0; i < settledCount; i++) {
+                String gameId = in.getString();
+                index.bookFor(gameId).restoreClosed(new GameExposure(gameId, in.getLong(), in.getLong(), in.getLong(), true));
+            }
+
+            int userCount = in.getInt();
+            users = new ArrayList<>(userCount);
+            for (int i = 0; i < userCount; i++) {
+                String username = in.getString();
+                String password = in.getString();
+                // The balance is opened as stored: it may be negative, which a credit would reject.
+                RegularUser user = RegularUser.restore(username, password, in.getLong(), context);
+                long stake = in.getLong();
+                long netWinnings = in.getLong();
+                int size = in.getInt();
+                int capacity = Math.max(4, size + (size >> 1));
+                int[] gameIds = remap(in.getInts(size, capacity), size, gameCodes);
+                int[] outcomes = remap(in.getInts(size, capacity), size, outcomeCodes);
+                user.restoreHistory(new BetHistory.Columns(gameIds, outcomes, in.getLongs(size, capacity),
+                        in.getLongs(size, capacity), in.getLongs(size, capacity), size));
+                if (stake != 0 || netWinnings != 0) {
+                    context.byStake.add(user.getAccount(), user.getUsername(), stake);
+                    context.byNetWinnings.add(user.getAccount(), user.getUsername(), netWinnings);
+                }
+                engine.restoreUser(user);
+                users.add(user);
+                bets += size;
+            }
+        }
+
+        CatalogSnapshot catalog = admin.getCatalog();
+        users.parallelStream().forEach(user -> {
+            BetHistory.Columns history = user.historyColumns();
+            GameBook book = null;
+            for (int row = 0; row < history.size; row++) {
+                String gameId = context.gameIds.decode(history.gameIds[row]);
+                if (!catalog.contains(gameId) || history.catalogVersions[row] < catalog.getAddedVersion(gameId)) {
+                    continue; // the game was removed, or the bet was on an earlier game with this id
+                }
+                if (book == null || !book.getGameId().equals(gameId)) {
+                    book = index.bookFor(gameId);
+                }
+                if (!book.isClosed()) {
+                    book.record(user.getAccount(), context.outcomes.decode(history.outcomes[row]), history.cents[row]);
+                }
+            }
+        });
+        return new Report("Snapshot restored", users.size(), bets, Files.size(path), journalPosition,
+                System.nanoTime() - start, 0);
+    }
+
+    private static void writeDictionary(Output out, StringDictionary dictionary) throws IOException {
+        int size = dictionary.size();
+        out.putInt(size);
+        for (int i = 0; i < size; i++) {
+            out.putString(dictionary.decode(i));
+        }
+    }
+
+    private static int[] readDictionary(Input in, StringDictionary dictionary) throws IOException {
+        int[] codes = new int[in.getInt()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = dictionary.encode(in.getString());
+        }
+        return codes;
+    }
+
+    private static int[] remap(int[] values, int size, int[] codes) {
+        for (int i = 0; i < size; i++) {
+            values[i] = codes[values[i]];
+        }
+        return values;
+    }
+
+    private static class Output implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long written;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            for (int offset = 0; offset < bytes.length; ) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        void putInts(int[] values, int count) throws IOException {
+            for (int offset = 0; offset < count; ) {
+                ensure(Integer.BYTES);
+                int length = Math.min(buffer.remaining() / Integer.BYTES, count - offset);
+                buffer.asIntBuffer().put(values, offset, length);
+                buffer.position(buffer.position() + length * Integer.BYTES);
+                offset += length;
+            }
+        }
+
+        void putLongs(long[] values, int count) throws IOException {
+            for (int offset = 0; offset < count; ) {
+                ensure(Long.BYTES);
+                int length = Math.min(buffer.remaining() / Long.BYTES, count - offset);
+                buffer.asLongBuffer().put(values, offset, length);
+                buffer.position(buffer.position() + length * Long.BYTES);
+                offset += length;
+            }
+        }
+
+        long finish() throws IOException {
+            drain();
+            channel.force(true);
+            return written;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static class Input implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Input(FileChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        int getInt() throws IOException {
+            require(Integer.BYTES);
+            return buffer.getInt();
+        }
+
+        long getLong() throws IOException {
+            require(Long.BYTES);
+            return buffer.getLong();
+        }
+
+        String getString() throws IOException {
+            byte[] bytes = new byte[getInt()];
+            for (int offset = 0; offset < bytes.length; ) {
+                require(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.get(bytes, offset, length);
+                offset += length;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int[] getInts(int count, int capacity) throws IOException {
+            int[] values = new int[capacity];
+            for (int offset = 0; offset < count; ) {
+                require(Integer.BYTES);
+                int length = Math.min(buffer.remaining() / Integer.BYTES, count - offset);
+                buffer.asIntBuffer().get(values, offset, length);
+                buffer.position(buffer.position() + length * Integer.BYTES);
+                offset += length;
+            }
+            return values;
+        }
+
+        long[] getLongs(int count, int capacity) throws IOException {
+            long[] values = new long[capacity];
+            for (int offset = 0; offset < count; ) {
+                require(Long.BYTES);
+                int length = Math.min(buffer.remaining() / Long.BYTES, count - offset);
+                buffer.asLongBuffer().get(values, offset, length);
+                buffer.position(buffer.position() + length * Long.BYTES);
+                offset += length;
+            }
+            return values;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Snapshot is truncated.");
+                }
+            }
+            buffer.flip();
+        }
     }
 }
 
-class Game {
-    private String gameId;
-    private String gameName;
+// Micro-benchmarks for the betting hot paths, run with
+// "--bench [users=N] [bets=N] [threads=N] [iterations=N]". Every benchmark runs warm-up
+// rounds before the measured ones, and results feed a volatile sink so the JIT
+// cannot discard the work being timed.
+class BettingBenchmarks {
+    private interface Operation {
+        long run(int thread, long i) throws Exception;
+    }
 
-    public Game(String gameId, String gameName) {
-        this.gameId = gameId;
-        this.gameName = gameName;
+    private static volatile long sink;
+
+    private final int users;
+    private final int bets;
+    private final int threads;
+    private final int iterations;
+
+    private BettingBenchmarks(Map<String, Integer> options) {
+        this.users = options.getOrDefault("users", 10_000);
+        this.bets = options.getOrDefault("bets", 1_000_000);
+        this.threads = options.getOrDefault("threads", Runtime.getRuntime().availableProcessors());
+        this.iterations = options.getOrDefault("iterations", 5);
     }
 
-    public String getGameId() {
-        return gameId;
+    static void run(String[] args) throws Exception {
+        Map<String, Integer> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), Integer.parseInt(arg.substring(eq + 1)));
+            }
+        }
+        new BettingBenchmarks(options).runAll();
     }
 
-    public String getGameName() {
-        return gameName;
+    private void runAll() throws Exception {
+        System.out.printf("Benchmarks: users=%d bets=%d threads=%d iterations=%d%n", users, bets, threads, iterations);
+
+        // A private context, so the benchmark users, books, odds boards and leaderboards
+        // never land in the application's shared ones.
+        BettingContext context = new BettingContext();
+        AdminUser admin = new AdminUser("bench-admin", "password1", 0, context);
+        String[] gameIds = new String[1_000];
+        for (int i = 0; i < gameIds.length; i++) {
+            gameIds[i] = "game-" + i;
+            admin.putGame(new Game(gameIds[i], "Game " + i, Arrays.asList("home", "away")));
+        }
+        RegularUser[] bettors = new RegularUser[users];
+        for (int i = 0; i < users; i++) {
+            bettors[i] = new RegularUser("bettor-" + i, "password1", 1_000_000_000, context);
+        }
+        RegularUser hot = bettors[0];
+
+        measure("deductBalance", 1, bets, (thread, i) -> {
+            hot.deductBalance(0.01);
+            return 1;
+        });
+        measure("deposit (contended)", threads, bets / threads, (thread, i) -> {
+            hot.deposit(0.01);
+            return 1;
+        });
+        measure("catalog containsKey", 1, bets, (thread, i) ->
+                admin.getCatalog().contains(gameIds[(int) (i % gameIds.length)]) ? 1 : 0);
+        measure("placeBet", 1, bets, (thread, i) -> {
+            bettors[(int) (i % users)].recordBet(new Bet(gameIds[(int) (i % gameIds.length)], "home", 0.01));
+            return 1;
+        });
+        measure("placeBet (contended)", threads, bets / threads, (thread, i) -> {
+            bettors[(int) (i % users)].recordBet(new Bet(gameIds[(int) (i % 8)], "home", 0.01));
+            return 1;
+        });
+        measure("register", threads, Math.max(1, users / threads), (thread, i) ->
+                new RegularUser("new-" + thread + "-" + i, "password1", 100, context).getAccount());
+
+        RegularUser heavy = new RegularUser("heavy-bettor", "password1", 1_000_000_000, context);
+        for (int i = 0; i < bets; i++) {
+            heavy.recordBet(new Bet(gameIds[i % gameIds.length], "home", 0.01));
+        }
+        measure("bet history scan (" + bets + " rows)", 1, 10, (thread, i) -> {
+            BetHistory.Cursor cursor = heavy.viewBetHistory();
+            long total = 0;
+            while (cursor.next()) {
+                total += cursor.getAmountCents();
+            }
+            return total;
+        });
+
+        BettingEngine engine = new BettingEngine(threads, 1 << 14, admin, null);
+        engine.start(null);
+        for (int i = 0; i < users; i++) {
+            engine.register("engine-" + i, "password1", 1_000_000_000).join();
+        }
+        measure("engine placeBet (contended)", threads, bets / threads / 10, (thread, i) -> {
+            engine.placeBet("engine-" + (i % users), gameIds[(int) (i % 8)], "home", 0.01).join();
+            return 1;
+        });
+        engine.close();
+    }
+
+    private void measure(String name, int threadCount, long opsPerThread, Operation operation) throws Exception {
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (int round = 0; round < iterations * 2; round++) {
+            long elapsed = runRound(threadCount, opsPerThread, operation);
+            if (round >= iterations) {
+                best = Math.min(best, elapsed);
+                total += elapsed;
+            }
+        }
+        double ops = (double) threadCount * opsPerThread;
+        double average = total / (double) iterations;
+        System.out.printf("%-40s %12.1f ns/op (best %.1f) %14.0f ops/s%n",
+                name, average / ops, best / ops, ops * 1_000_000_000.0 / average);
+    }
+
+    private long runRound(int threadCount, long opsPerThread, Operation operation) throws Exception {
+        CountDownLatch ready = new CountDownLatch(threadCount);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Long>> results = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (int t = 0; t < threadCount; t++) {
+                int thread = t;
+                results.add(pool.submit(() -> {
+                    ready.countDown();
+                    go.await();
+                    long result = 0;
+                    for (long i = 0; i < opsPerThread; i++) {
+                        result += operation.run(thread, i);
+                    }
+                    return result;
+                }));
+            }
+            ready.await();
+            long start = System.nanoTime();
+            go.countDown();
+            long result = 0;
+            for (Future<Long> future : results) {
+                result += future.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            sink += result;
+            return elapsed;
+        } finally {
+            pool.shutdown();
+        }
     }
 }
 
 public class OnlineBettingManagementSystem {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--bench")) {
+            try {
+                BettingBenchmarks.run(Arrays.copyOfRange(args, 1, args.length));
+            } catch (Exception e) {
+                System.out.println("Error: " + e.getMessage());
+            }
+            return;
+        }
+
         Scanner scanner = new Scanner(System.in);
-        Map<String, RegularUser> users = new HashMap<>();
         AdminUser admin = new AdminUser("admin", "admin123", 0);
+        BettingContext context = BettingContext.DEFAULT;
+        GameSettlement settlement = new GameSettlement(context, 0.05);
+        BettingEngine engine = new BettingEngine(Runtime.getRuntime().availableProcessors(), 1 << 14, admin, settlement,
+                new AdmissionControl(20, 40, 0.9));
 
         System.out.println("Welcome to the Online Betting Management System!");
 
+        Path snapshotPath = Paths.get(System.getProperty("betting.snapshot", "betting.snapshot"));
+        BettingJournal journal;
+        try {
+            long journalStart = 0;
+            if (Files.exists(snapshotPath)) {
+                BettingSnapshot.Report restored = BettingSnapshot.restore(snapshotPath, engine, admin);
+                System.out.println(restored);
+                journalStart = restored.getJournalPosition();
+            }
+            journal = BettingJournal.open(Paths.get(System.getProperty("betting.journal", "betting.journal")),
+                    new JournalReplayer(engine, admin, settlement), journalStart);
+        } catch (IOException e) {
+            System.out.println("Error: could not open journal: " + e.getMessage());
+            return;
+        }
+        System.out.println(journal.replayStats());
+        engine.start(journal);
+
+        if (args.length > 0 && args[0].equals("--http")) {
+            try {
+                BettingHttpServer server = new BettingHttpServer(engine, args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+                server.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    server.stop();
+                    engine.close();
+                    try {
+                        journal.close();
+                    } catch (IOException e) {
+                        System.out.println("Error: " + e.getMessage());
+                    }
+                }));
+                System.out.println("Betting HTTP API listening on port " + server.getPort());
+            } catch (IOException | NumberFormatException e) {
+                System.out.println("Error: could not start HTTP server: " + e.getMessage());
+            }
+            return;
+        }
+
         while (true) {
             System.out.println("\nOptions:");
             System.out.println("1. Admin - Add Game");
@@ -142,7 +3480,14 @@ public class OnlineBettingManagementSystem {
             System.out.println("3. User - Register");
             System.out.println("4. User - Place Bet");
             System.out.println("5. User - View Bet History");
-            System.out.println("6. Exit");
+            System.out.println("6. Admin - Settle Game");
+            System.out.println("7. Admin - View Game Exposure");
+            System.out.println("8. User - Deposit");
+            System.out.println("9. Admin - View Shard Queue Depths");
+            System.out.println("10. Admin - Take Snapshot");
+            System.out.println("11. User - View Odds");
+            System.out.println("12. View Leaderboards");
+            System.out.println("13. Exit");
             System.out.print("Choose an option: ");
 
             int choice = scanner.nextInt();
@@ -155,15 +3500,18 @@ public class OnlineBettingManagementSystem {
                         String gameId = scanner.nextLine();
                         System.out.print("Enter Game Name: ");
                         String gameName = scanner.nextLine();
+                        System.out.print("Enter Outcomes (comma-separated, blank for any): ");
+                        List<String> outcomes = BettingHttpServer.outcomes(scanner.nextLine());
 
-                        Game game = new Game(gameId, gameName);
-                        admin.addGame(game);
+                        engine.addGame(gameId, gameName, outcomes);
+                        System.out.println("Game added successfully!");
                         break;
 
                     case 2: // Remove Game
                         System.out.print("Enter Game ID to Remove: ");
                         gameId = scanner.nextLine();
-                        admin.removeGame(gameId);
+                        engine.removeGame(gameId);
+                        System.out.println("Game removed successfully!");
                         break;
 
                     case 3: // Register User
@@ -174,48 +3522,109 @@ public class OnlineBettingManagementSystem {
                         System.out.print("Enter Initial Balance: ");
                         double balance = scanner.nextDouble();
 
-                        RegularUser user = new RegularUser(username, password, balance);
-                        users.put(username, user);
+                        BettingEngine.await(engine.register(username, password, balance));
                         System.out.println("User registered successfully!");
                         break;
 
                     case 4: // Place Bet
                         System.out.print("Enter Username: ");
                         username = scanner.nextLine();
-                        if (!users.containsKey(username)) {
+                        if (!BettingEngine.await(engine.hasUser(username))) {
                             throw new IllegalArgumentException("User not found.");
                         }
 
-                        RegularUser bettingUser = users.get(username);
                         System.out.print("Enter Game ID to Bet On: ");
                         gameId = scanner.nextLine();
-                        if (!admin.getGames().containsKey(gameId)) {
+                        if (!admin.getCatalog().contains(gameId)) {
                             throw new IllegalArgumentException("Game ID not found.");
                         }
 
+                        System.out.print("Enter Outcome to Bet On: ");
+                        String outcome = scanner.nextLine();
                         System.out.print("Enter Bet Amount: ");
                         double betAmount = scanner.nextDouble();
                         scanner.nextLine(); // Consume newline
 
-                        Bet bet = new Bet(gameId, betAmount);
-                        bettingUser.placeBet(bet);
+                        BettingEngine.await(engine.placeBet(username, gameId, outcome, betAmount));
+                        System.out.println("Bet placed successfully!");
                         break;
 
                     case 5: // View Bet History
                         System.out.print("Enter Username: ");
                         username = scanner.nextLine();
-                        if (!users.containsKey(username)) {
-                            throw new IllegalArgumentException("User not found.");
-                        }
 
-                        List<Bet> bets = users.get(username).viewBetHistory();
+                        BetHistory.Cursor bets = BettingEngine.await(engine.history(username, 0, Integer.MAX_VALUE));
                         System.out.println("Bet History:");
-                        for (Bet b : bets) {
-                            System.out.println("Game ID: " + b.getGameId() + ", Bet Amount: $" + b.getAmount());
+                        while (bets.next()) {
+                            System.out.println("Game ID: " + bets.getGameId() + ", Outcome: " + bets.getOutcome() + ", Bet Amount: $" + bets.getAmount());
+                        }
+                        break;
+
+                    case 6: // Settle Game
+                        System.out.print("Enter Game ID to Settle: ");
+                        gameId = scanner.nextLine();
+                        if (!admin.getGames().containsKey(gameId)) {
+                            throw new IllegalArgumentException("Game ID not found.");
+                        }
+                        System.out.print("Enter Winning Outcome: ");
+                        String winningOutcome = scanner.nextLine();
+                        System.out.println(engine.settleGame(gameId, winningOutcome));
+                        break;
+
+                    case 7: // View Game Exposure
+                        System.out.print("Enter Game ID: ");
+                        gameId = scanner.nextLine();
+                        if (!admin.getGames().containsKey(gameId)) {
+                            throw new IllegalArgumentException("Game ID not found.");
+                        }
+                        System.out.println(context.index.exposure(gameId));
+                        break;
+
+                    case 8: // Deposit
+                        System.out.print("Enter Username: ");
+                        username = scanner.nextLine();
+                        System.out.print("Enter Deposit Amount: ");
+                        double depositAmount = scanner.nextDouble();
+                        scanner.nextLine(); // Consume newline
+
+                        double newBalance = BettingEngine.await(engine.deposit(username, depositAmount));
+                        System.out.println("Deposit successful! New balance: $" + newBalance);
+                        break;
+
+                    case 9: // Shard Queue Depths
+                        System.out.println("Shard queue depths: " + Arrays.toString(engine.queueDepths()));
+                        System.out.println(engine.getAdmission());
+                        break;
+
+                    case 10: // Take Snapshot
+                        System.out.println(engine.snapshot(snapshotPath));
+                        break;
+
+                    case 11: // View Odds
+                        System.out.print("Enter Game ID: ");
+                        gameId = scanner.nextLine();
+                        System.out.println(context.odds.quote(gameId));
+                        break;
+
+                    case 12: // Leaderboards
+                        System.out.print("Enter Username to Rank (blank to skip): ");
+                        username = scanner.nextLine();
+                        for (Leaderboard board : Arrays.asList(context.byStake, context.byNetWinnings)) {
+                            System.out.println(board.getMetric() + ":");
+                            for (Leaderboard.Standing standing : board.top(10)) {
+                                System.out.println("  " + standing);
+                            }
+                            if (!username.isEmpty()) {
+                                int rank = board.rank(username);
+                                System.out.println("  " + username + " is " + (rank == 0 ? "not ranked" : "ranked #" + rank));
+                            }
                         }
                         break;
 
-                    case 6: // Exit
+                    case 13: // Exit
+                        engine.close();
+                        System.out.println(journal.appendStats());
+                        journal.close();
                         System.out.println("Exiting the system. Goodbye!");
                         scanner.close();
                         return;
@@ -0,0 +1,279 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+// Items ranked by a running score (highest first, ties by id), kept in a treap
+// whose nodes know their subtree size, so top-N and rank are O(log n). Updates
+// are deltas queued by the caller and applied in bulk by whichever thread holds
+// the lock (flat combining); writers never wait on each other, and deltas from
+// different threads commute. Shared by the betting leaderboards and the traffic
+// offender indexes.
+class RankedTreap<T> {
+    interface Visitor<T> {
+        void visit(int rank, T item, long score);
+    }
+
+    private static class Update<T> {
+        final int id;
+        final T item;
+        final long delta;
+        final boolean remove;
+
+        Update(int id, T item, long delta, boolean remove) {
+            this.id = id;
+            this.item = item;
+            this.delta = delta;
+            this.remove = remove;
+        }
+    }
+
+    private static class Node<T> {
+        final int id;
+        final T item;
+        final int priority;
+        long score;
+        int size = 1;
+        Node<T> left;
+        Node<T> right;
+
+        Node(int id, T item) {
+            this.id = id;
+            this.item = item;
+            int hash = id * 0x9E3779B9;
+            this.priority = hash ^ (hash >>> 16);
+        }
+    }
+
+    private final boolean dropAtZero;
+    private final Predicate<? super T> ranked;
+    private final Queue<Update<T>> pending = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Integer, Node<T>> byId = new HashMap<>();
+    private Node<T> root;
+
+    // With dropAtZero an item leaves the ranking when its score returns to zero
+    // and comes back with its next delta; otherwise it stays once added.
+    RankedTreap(boolean dropAtZero) {
+        this(dropAtZero, item -> true);
+    }
+
+    // Deltas for an item that ranked rejects are ignored when applied, so an item
+    // can be retired for good without the treap keeping a record of its id.
+    RankedTreap(boolean dropAtZero, Predicate<? super T> ranked) {
+        this.dropAtZero = dropAtZero;
+        this.ranked = ranked;
+    }
+
+    // Adds delta to the item's score, ranking it first if needed. A null item
+    // only adjusts an id that is already ranked.
+    public void add(int id, T item, long delta) {
+        pending.add(new Update<>(id, item, delta, false));
+        combine();
+    }
+
+    // Queues several deltas for ids that are already ranked and combines once.
+    public void addAll(int[] ids, long[] deltas, int count) {
+        for (int i = 0; i < count; i++) {
+            pending.add(new Update<>(ids[i], null, deltas[i], false));
+        }
+        combine();
+    }
+
+    // Drops the id from the ranking. Its item must fail the ranked predicate first,
+    // or deltas still on their way would rank it again; the id must not be reused.
+    public void remove(int id) {
+        pending.add(new Update<>(id, null, 0, true));
+        combine();
+    }
+
+    public void top(int limit, Visitor<T> visitor) {
+        lock.lock();
+        try {
+            apply();
+            collect(root, limit, new int[1], visitor);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 1-based rank, or 0 if the id is not ranked.
+    public int rank(int id) {
+        lock.lock();
+        try {
+            apply();
+            Node<T> node = byId.get(id);
+            return node == null ? 0 : rankOf(node);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long score(int id) {
+        lock.lock();
+        try {
+            apply();
+            Node<T> node = byId.get(id);
+            return node == null ? 0 : node.score;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            apply();
+            return byId.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void combine() {
+        while (!pending.isEmpty() && lock.tryLock()) {
+            try {
+                apply();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void apply() {
+        Update<T> update;
+        while ((update = pending.poll()) != null) {
+            if (update.item != null && !ranked.test(update.item)) {
+                continue;
+            }
+            Node<T> node = byId.get(update.id);
+            if (node != null) {
+                root = remove(root, node);
+                node.left = null;
+                node.right = null;
+                node.size = 1;
+            }
+            if (update.remove) {
+                byId.remove(update.id);
+                continue;
+            }
+            if (node == null) {
+                if (update.item == null) {
+                    continue; // nothing ranked under this id to adjust
+                }
+                node = new Node<>(update.id, update.item);
+                byId.put(update.id, node);
+            }
+            node.score += update.delta;
+            if (dropAtZero && node.score == 0) {
+                byId.remove(update.id);
+                continue;
+            }
+            root = insert(root, node);
+        }
+    }
+
+    private static boolean before(Node<?> a, Node<?> b) {
+        return a.score != b.score ? a.score > b.score : a.id < b.id;
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static <T> Node<T> update(Node<T> node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        return node;
+    }
+
+    private static <T> Node<T> insert(Node<T> tree, Node<T> node) {
+        if (tree == null) {
+            return node;
+        }
+        if (node.priority > tree.priority) {
+            Node<T>[] parts = split(tree, node);
+            node.left = parts[0];
+            node.right = parts[1];
+            return update(node);
+        }
+        if (before(node, tree)) {
+            tree.left = insert(tree.left, node);
+        } else {
+            tree.right = insert(tree.right, node);
+        }
+        return update(tree);
+    }
+
+    private static <T> Node<T> remove(Node<T> tree, Node<T> node) {
+        if (tree == node) {
+            return merge(tree.left, tree.right);
+        }
+        if (before(node, tree)) {
+            tree.left = remove(tree.left, node);
+        } else {
+            tree.right = remove(tree.right, node);
+        }
+        return update(tree);
+    }
+
+    // Splits into the nodes ordered before key and the nodes ordered after it.
+    @SuppressWarnings("unchecked")
+    private static <T> Node<T>[] split(Node<T> tree, Node<T> key) {
+        if (tree == null) {
+            return (Node<T>[]) new Node<?>[2];
+        }
+        if (before(tree, key)) {
+            Node<T>[] parts = split(tree.right, key);
+            tree.right = parts[0];
+            parts[0] = update(tree);
+            return parts;
+        }
+        Node<T>[] parts = split(tree.left, key);
+        tree.left = parts[1];
+        parts[1] = update(tree);
+        return parts;
+    }
+
+    private static <T> Node<T> merge(Node<T> left, Node<T> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return update(left);
+        }
+        right.left = merge(left, right.left);
+        return update(right);
+    }
+
+    private int rankOf(Node<T> node) {
+        int rank = 1;
+        Node<T> current = root;
+        while (current != node) {
+            if (before(node, current)) {
+                current = current.left;
+            } else {
+                rank += size(current.left) + 1;
+                current = current.right;
+            }
+        }
+        return rank + size(node.left);
+    }
+
+    // seen[0] counts the items visited so far.
+    private void collect(Node<T> node, int limit, int[] seen, Visitor<T> visitor) {
+        if (node == null || seen[0] >= limit) {
+            return;
+        }
+        collect(node.left, limit, seen, visitor);
+        if (seen[0] < limit) {
+            visitor.visit(++seen[0], node.item, node.score);
+        }
+        collect(node.right, limit, seen, visitor);
+    }
+}
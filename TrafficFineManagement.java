@@ -1,4 +1,47 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.TemporalAdjusters;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
 
 class InvalidViolationException extends Exception {
     public InvalidViolationException(String message) {
@@ -11,104 +54,3810 @@ abstract class Person {
     private String licenseNumber;
 
     public Person(String name, String licenseNumber) throws IllegalArgumentException {
+        validateLicense(licenseNumber);
+        this.name = name;
+        this.licenseNumber = licenseNumber;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getLicenseNumber() {
+        return licenseNumber;
+    }
+
+    public abstract void displayDetails();
+
+    static void validateLicense(String licenseNumber) {
         if (!licenseNumber.matches("[A-Za-z0-9]{8,12}")) {
             throw new IllegalArgumentException("License number must be alphanumeric and 8-12 characters long.");
         }
-        this.name = name;
-        this.licenseNumber = licenseNumber;
+    }
+}
+
+class Driver extends Person {
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private final int id;
+    private final ViolationTimeline timeline = new ViolationTimeline();
+    private final FineAccumulator fines;
+    private final ViolationLog log;
+    private final int record;
+    // Timeline index of the oldest violation that may still be owed; guarded by the timeline lock.
+    private int unpaidFrom;
+    // Packed totals with no violation rows behind them (see reconcile); guarded by the timeline lock.
+    private long unbacked;
+    // The packed totals every decided change adds up to, checked against what the
+    // accumulator can hold before a violation is recorded; guarded by the timeline lock.
+    private long booked;
+    // Store row of each violation by its number (index + 1), in the order recorded; guarded by the timeline lock.
+    private int[] rowsByNumber = new int[4];
+    private int numbered;
+    // Set once the driver is replaced in its registry; it is then never ranked again.
+    private volatile boolean retired;
+
+    public Driver(String name, String licenseNumber) {
+        this(name, licenseNumber, new FineAccumulator(), null, -1);
+    }
+
+    // For drivers kept in a DriverFile: the totals live in the file, and every
+    // change to the violations is written to the log under the file record.
+    Driver(String name, String licenseNumber, FineAccumulator fines, ViolationLog log, int record) {
+        super(name, licenseNumber);
+        this.id = nextId.getAndIncrement();
+        this.fines = fines;
+        this.log = log;
+        this.record = record;
+        this.booked = fines.sum();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    void retire() {
+        retired = true;
+    }
+
+    boolean isRetired() {
+        return retired;
+    }
+
+    public void addViolation(SpecificViolation violation) throws InvalidViolationException {
+        addViolation(violation, System.currentTimeMillis());
+    }
+
+    public void addViolation(SpecificViolation violation, long timestamp) throws InvalidViolationException {
+        addViolation(violation.getType(), fineCents(Double.toString(violation.getFineAmount())), timestamp);
+    }
+
+    // Exact like payments: fractions of a cent, NaN and infinities are rejected, not rounded.
+    static long fineCents(String amount) throws InvalidViolationException {
+        long cents;
+        try {
+            cents = PaymentIngest.parseCents(amount);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidViolationException("Invalid fine amount.");
+        }
+        if (cents <= 0) {
+            throw new InvalidViolationException("Fine amount must be positive.");
+        }
+        return cents;
+    }
+
+    // Fines the driver from the current schedule, escalated by how many violations
+    // of the same type they already have within the schedule's lookback. Returns cents.
+    public long recordViolation(ViolationType type, long timestamp) {
+        FineSchedule schedule = FineSchedule.current();
+        long cents;
+        // Counting priors and recording must not interleave with another writer for this driver.
+        synchronized (timeline) {
+            int priors = timeline.countType(type.getCode(), timestamp - schedule.getLookbackMillis(), timestamp);
+            cents = schedule.fineCents(type, priors);
+            record(type, cents, timestamp);
+        }
+        accrue(type, cents, timestamp);
+        return cents;
+    }
+
+    void addViolation(ViolationType type, long cents, long timestamp) {
+        synchronized (timeline) {
+            record(type, cents, timestamp);
+        }
+        accrue(type, cents, timestamp);
+    }
+
+    // Called with the timeline locked, so the rules see this violation and no
+    // other that arrives after it.
+    private void record(ViolationType type, long cents, long timestamp) {
+        long totals = FineAccumulator.plus(booked, cents, 1);
+        if (log != null) {
+            log.logViolation(record, type, cents, timestamp);
+        }
+        append(type, cents, timestamp);
+        booked = totals;
+        SuspensionEngine.DEFAULT.evaluate(this, timeline, type, cents, timestamp);
+    }
+
+    // Stores the violation under the driver's next number; called with the timeline locked.
+    private void append(ViolationType type, long cents, long timestamp) {
+        int row = ViolationStore.DEFAULT.append(id, numbered + 1, type.getCode(), cents, timestamp);
+        if (numbered == rowsByNumber.length) {
+            rowsByNumber = Arrays.copyOf(rowsByNumber, numbered * 2);
+        }
+        rowsByNumber[numbered++] = row;
+        unpaidFrom = Math.min(unpaidFrom, timeline.add(row, timestamp, cents, type.getCode()));
+    }
+
+    // Totals, rankings and rollups are all commuting deltas, so they are applied
+    // after the lock is released; only the per-driver ordering needs it.
+    private void accrue(ViolationType type, long cents, long timestamp) {
+        fines.add(cents, 1);
+        OffenderIndex.BY_FINES.add(this, cents);
+        OffenderIndex.BY_COUNT.add(this, 1);
+        FineRollup.DEFAULT.record(type, cents, timestamp);
+    }
+
+    // Waives everything outstanding; the recorded violations are kept. A violation
+    // racing with the reset is either cleared by it or counted after it, never lost:
+    // the reset subtracts exactly what it settled, whenever that violation's own
+    // delta lands.
+    // Totals recorded before violations were logged go with it.
+    public void resetViolations() {
+        long waived;
+        synchronized (timeline) {
+            if (log != null) {
+                log.logWaiver(record);
+            }
+            waived = settleAll() + unbacked;
+            unbacked = 0;
+            booked -= waived;
+        }
+        fines.add(-FineAccumulator.cents(waived), -FineAccumulator.count(waived));
+        OffenderIndex.BY_FINES.add(this, -FineAccumulator.cents(waived));
+        OffenderIndex.BY_COUNT.add(this, -FineAccumulator.count(waived));
+    }
+
+    // Settles every row still owed and returns the packed cents and count cleared.
+    private long settleAll() {
+        long waived = 0;
+        int cleared = 0;
+        for (int i = unpaidFrom; i < timeline.size(); i++) {
+            long settled = ViolationStore.DEFAULT.settle(id, timeline.rowAt(i), Long.MAX_VALUE);
+            if (settled > 0) {
+                waived += settled;
+                cleared++;
+            }
+        }
+        unpaidFrom = timeline.size();
+        return FineAccumulator.pack(waived, cleared);
+    }
+
+    // Rebuilds a logged violation without fining, ranking or checking the rules
+    // again; the file's totals already include it.
+    void replayViolation(ViolationType type, long cents, long timestamp) {
+        synchronized (timeline) {
+            append(type, cents, timestamp);
+        }
+        FineRollup.DEFAULT.record(type, cents, timestamp);
+    }
+
+    void replayWaiver() {
+        synchronized (timeline) {
+            settleAll();
+        }
+    }
+
+    void replayPayment(int[] violations, long[] cents) {
+        synchronized (timeline) {
+            settle(violations, cents, violations.length);
+        }
+    }
+
+    // Called once the log has been replayed. Whatever the file's totals hold beyond
+    // the rows still owed was recorded before violations were logged, or lost with
+    // the log's tail; no payment can be matched to it, so pay refuses until it is waived.
+    void reconcile() {
+        synchronized (timeline) {
+            long owed = 0;
+            int count = 0;
+            for (int i = unpaidFrom; i < timeline.size(); i++) {
+                long outstanding = ViolationStore.DEFAULT.outstanding(id, timeline.rowAt(i));
+                if (outstanding > 0) {
+                    owed += outstanding;
+                    count++;
+                }
+            }
+            unbacked = fines.sum() - FineAccumulator.pack(owed, count);
+        }
+    }
+
+    // Applies a payment to one violation, by the number shown with it, or to the
+    // oldest unpaid ones when violation is not positive, and returns the cents
+    // applied; anything beyond what was due is left for the caller. A fully paid
+    // violation no longer counts as outstanding. Only settling the rows takes the
+    // driver's lock; the totals and rankings follow as deltas once it is released.
+    public long pay(long cents, int violation) {
+        return pay(cents, violation, "");
+    }
+
+    // The same, logging the payment with its bank reference for a file-backed driver.
+    long pay(long cents, int violation, String reference) {
+        if (cents <= 0) {
+            throw new IllegalArgumentException("Payment amount must be positive.");
+        }
+        long applied = 0;
+        int cleared;
+        synchronized (timeline) {
+            if (unbacked != 0) {
+                throw new IllegalStateException("$" + FineAccumulator.cents(unbacked) / 100.0 + " of " + getName()
+                        + "'s fines has no violation on record to pay against; reset the driver's violations to waive it.");
+            }
+            if (violation > numbered) {
+                throw new IllegalArgumentException("No such violation for this driver.");
+            }
+            int candidates = violation > 0 ? 1 : timeline.size() - unpaidFrom;
+            int[] numbers = new int[Math.min(candidates, 16)];
+            long[] amounts = new long[numbers.length];
+            int count = 0;
+            for (int i = 0; i < candidates && applied < cents; i++) {
+                int row = violation > 0 ? rowsByNumber[violation - 1] : timeline.rowAt(unpaidFrom + i);
+                long due = Math.min(cents - applied, ViolationStore.DEFAULT.outstanding(id, row));
+                if (due > 0) {
+                    if (count == numbers.length) {
+                        numbers = Arrays.copyOf(numbers, count * 2);
+                        amounts = Arrays.copyOf(amounts, count * 2);
+                    }
+                    numbers[count] = ViolationStore.DEFAULT.read(id, row).getId();
+                    amounts[count++] = due;
+                    applied += due;
+                }
+            }
+            // Logged before anything changes, so a failed write leaves the payment unapplied.
+            if (log != null && (count > 0 || !reference.isEmpty())) {
+                log.logPayment(record, reference, numbers, amounts, count);
+            }
+            cleared = settle(numbers, amounts, count);
+            booked -= FineAccumulator.pack(applied, cleared);
+        }
+        fines.add(-applied, -cleared);
+        OffenderIndex.BY_FINES.add(this, -applied);
+        OffenderIndex.BY_COUNT.add(this, -cleared);
+        return applied;
+    }
+
+    // Settles the given cents of each numbered violation and returns how many
+    // were paid off; called with the timeline locked.
+    private int settle(int[] violations, long[] cents, int count) {
+        int cleared = 0;
+        for (int i = 0; i < count; i++) {
+            if (violations[i] < 1 || violations[i] > numbered) {
+                continue;
+            }
+            int row = rowsByNumber[violations[i] - 1];
+            if (ViolationStore.DEFAULT.settle(id, row, cents[i]) > 0 && ViolationStore.DEFAULT.outstanding(id, row) == 0) {
+                cleared++;
+            }
+        }
+        while (unpaidFrom < timeline.size() && ViolationStore.DEFAULT.outstanding(id, timeline.rowAt(unpaidFrom)) == 0) {
+            unpaidFrom++;
+        }
+        return cleared;
+    }
+
+    long getTotals() {
+        return fines.sum();
+    }
+
+    public long getTotalFinesCents() {
+        return FineAccumulator.cents(fines.sum());
+    }
+
+    public int getViolationCount() {
+        return FineAccumulator.count(fines.sum());
+    }
+
+    // Violations recorded with from <= timestamp < to, oldest first.
+    public List<ViolationRecord> violationsBetween(long from, long to) {
+        int[] rows = timeline.rowsBetween(from, to);
+        List<ViolationRecord> records = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            records.add(ViolationStore.DEFAULT.read(id, row));
+        }
+        return records;
+    }
+
+    public long finesBetweenCents(long from, long to) {
+        return timeline.centsBetween(from, to);
+    }
+
+    public int countBetween(long from, long to) {
+        return timeline.countBetween(from, to);
+    }
+
+    @Override
+    public void displayDetails() {
+        long totals = fines.sum();
+        System.out.println("Driver Name: " + getName());
+        System.out.println("License Number: " + getLicenseNumber());
+        System.out.println("Total Fines: $" + FineAccumulator.cents(totals) / 100.0);
+        System.out.println("Violation Count: " + FineAccumulator.count(totals));
+    }
+}
+
+// A driver's outstanding fine cents and violation count packed into one long
+// (cents << 24 plus a signed 24-bit count), so a single atomic add moves both and
+// no read can see one without the other. Deltas land after the driver's lock is
+// released, so a waiver can briefly overtake the violation it cleared and leave
+// the count below zero; decoding keeps the sign, and the sum settles once the
+// violation's own delta lands. The halves carry into each other rather than
+// overflow, so add refuses a delta either half cannot hold, and a driver checks
+// its running totals with plus before recording a violation. Like LongAdder it starts as one cell and, once
+// a CAS fails, spreads writers over cache-line-padded stripes, so a popular
+// driver reported by many cameras at once does not serialize the ingest threads.
+// A file-backed accumulator instead keeps its one cell in a mapped DriverFile
+// record and never stripes, so the file always holds the whole total.
+class FineAccumulator {
+    private static final int COUNT_BITS = 24;
+    static final long MAX_CENTS = (1L << (63 - COUNT_BITS)) - 1;
+    static final int MAX_COUNT = (1 << (COUNT_BITS - 1)) - 1;
+    private static final int PADDING = 8; // longs per 64-byte cache line
+    private static final int STRIPES = Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+    private static final VarHandle MAPPED = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final AtomicLong base;
+    private final ByteBuffer mapped;
+    private final int offset;
+    private volatile AtomicLongArray cells;
+
+    public FineAccumulator() {
+        this.base = new AtomicLong();
+        this.mapped = null;
+        this.offset = 0;
+    }
+
+    FineAccumulator(ByteBuffer mapped, int offset) {
+        this.base = null;
+        this.mapped = mapped;
+        this.offset = offset;
+    }
+
+    public void add(long cents, int count) {
+        checkRange(cents, count);
+        long delta = pack(cents, count);
+        if (mapped != null) {
+            MAPPED.getAndAdd(mapped, offset, delta);
+            return;
+        }
+        AtomicLongArray striped = cells;
+        if (striped == null) {
+            long current = base.get();
+            if (base.compareAndSet(current, current + delta)) {
+                return;
+            }
+            striped = inflate();
+        }
+        striped.getAndAdd(slot(), delta);
+    }
+
+    public long sum() {
+        if (mapped != null) {
+            return (long) MAPPED.getVolatile(mapped, offset);
+        }
+        long total = base.get();
+        AtomicLongArray striped = cells;
+        if (striped != null) {
+            for (int i = 0; i < STRIPES; i++) {
+                total += striped.get(i * PADDING);
+            }
+        }
+        return total;
+    }
+
+    public static long pack(long cents, int count) {
+        return (cents << COUNT_BITS) + count;
+    }
+
+    // The packed totals plus a delta, refused if either half would no longer fit.
+    public static long plus(long packed, long cents, int count) {
+        checkRange(cents, count);
+        long totalCents = cents(packed) + cents;
+        long totalCount = count(packed) + (long) count;
+        checkRange(totalCents, totalCount);
+        return pack(totalCents, (int) totalCount);
+    }
+
+    private static void checkRange(long cents, long count) {
+        if (cents < -MAX_CENTS || cents > MAX_CENTS || count < -MAX_COUNT || count > MAX_COUNT) {
+            throw new IllegalArgumentException("Fine totals out of range.");
+        }
+    }
+
+    public static long cents(long packed) {
+        return (packed - count(packed)) >> COUNT_BITS;
+    }
+
+    public static int count(long packed) {
+        return (int) (packed << (64 - COUNT_BITS) >> (64 - COUNT_BITS));
+    }
+
+    private synchronized AtomicLongArray inflate() {
+        if (cells == null) {
+            cells = new AtomicLongArray(STRIPES * PADDING);
+        }
+        return cells;
+    }
+
+    private static int slot() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) & (STRIPES - 1)) * PADDING;
+    }
+}
+
+// Drivers by license number, safe for any mix of registering, ingesting and
+// reading threads. Keeps the license and offender indexes in step. Opened on a
+// DriverFile, it pages drivers in from disk on first use instead of loading
+// them all, and a background pass fills the indexes after startup. The
+// violations themselves are replayed from a ViolationLog beside the file, and
+// with them the payment references of the registry's PaymentLedger.
+class DriverRegistry {
+    private final ConcurrentHashMap<String, Driver> drivers = new ConcurrentHashMap<>();
+    private final DriverFile file;
+    private final ViolationLog log;
+    private final PaymentLedger payments = new PaymentLedger();
+    private final CountDownLatch warmed = new CountDownLatch(1);
+    private volatile boolean replayed;
+
+    public DriverRegistry() {
+        this.file = null;
+        this.log = null;
+        this.replayed = true;
+        warmed.countDown();
+    }
+
+    private DriverRegistry(DriverFile file, ViolationLog log) {
+        this.file = file;
+        this.log = log;
+    }
+
+    // Opens the driver file at path and its violation log at path + ".violations".
+    public static DriverRegistry open(Path path, int capacity) throws IOException {
+        DriverFile file = DriverFile.open(path, capacity);
+        ViolationLog log;
+        try {
+            log = ViolationLog.open(Paths.get(path + ".violations"));
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        DriverRegistry registry = new DriverRegistry(file, log);
+        try {
+            registry.replay();
+        } catch (IOException | RuntimeException e) {
+            registry.close();
+            throw e;
+        }
+        Thread warmUp = new Thread(registry::warmUp, "registry-warmup");
+        warmUp.setDaemon(true);
+        warmUp.start();
+        return registry;
+    }
+
+    // Registers a new driver, replacing any existing one with that license.
+    public synchronized Driver register(String name, String licenseNumber) {
+        DriverFile.validateName(name);
+        Driver driver;
+        boolean existed;
+        if (file == null) {
+            driver = new Driver(name, licenseNumber);
+            existed = drivers.containsKey(licenseNumber);
+        } else {
+            Person.validateLicense(licenseNumber);
+            int record = file.append(licenseNumber, name);
+            existed = file.link(licenseNumber, record) >= 0;
+            driver = materialize(record);
+        }
+        Driver replaced = drivers.put(licenseNumber, driver);
+        if (replaced != null) {
+            OffenderIndex.BY_FINES.remove(replaced);
+            OffenderIndex.BY_COUNT.remove(replaced);
+        }
+        if (!existed) {
+            LicenseIndex.DEFAULT.add(licenseNumber);
+        }
+        return driver;
+    }
+
+    public boolean contains(String licenseNumber) {
+        return drivers.containsKey(licenseNumber) || (file != null && file.find(licenseNumber) >= 0);
+    }
+
+    // Returns null if no driver has this license.
+    // The payment references applied to this registry's drivers.
+    public PaymentLedger getPayments() {
+        return payments;
+    }
+
+    public Driver get(String licenseNumber) {
+        Driver driver = drivers.get(licenseNumber);
+        if (driver != null || file == null) {
+            return driver;
+        }
+        int record = file.find(licenseNumber);
+        return record < 0 ? null : drivers.computeIfAbsent(licenseNumber, license -> materialize(record));
+    }
+
+    public int size() {
+        return file == null ? drivers.size() : file.size();
+    }
+
+    // Receives one driver's license and UTF-8 name in arrays that are reused for
+    // the next driver, and the packed totals (see FineAccumulator).
+    interface StatementVisitor {
+        void visit(byte[] license, int licenseLength, byte[] name, int nameLength, long totals) throws IOException;
+    }
+
+    // A fixed view of the registered drivers for a bulk export, visited by slot
+    // range so parts can be written in parallel. Slots are file records for a
+    // file-backed registry, read straight from the mapping; replaced records are skipped.
+    class Statements {
+        private final Driver[] snapshot;
+        private final int slots;
+
+        private Statements() {
+            snapshot = file == null ? drivers.values().toArray(new Driver[0]) : null;
+            slots = file == null ? snapshot.length : file.records();
+        }
+
+        public int slots() {
+            return slots;
+        }
+
+        public void visit(int from, int to, StatementVisitor visitor) throws IOException {
+            byte[] license = new byte[16];
+            byte[] name = new byte[64];
+            for (int slot = from; slot < to; slot++) {
+                if (file != null) {
+                    if (file.isCurrent(slot)) {
+                        visitor.visit(license, file.license(slot, license), name, file.name(slot, name),
+                                file.totalsWord(slot));
+                    }
+                    continue;
+                }
+                Driver driver = snapshot[slot];
+                String licenseNumber = driver.getLicenseNumber();
+                for (int i = 0; i < licenseNumber.length(); i++) {
+                    license[i] = (byte) licenseNumber.charAt(i);
+                }
+                String driverName = driver.getName();
+                if (name.length < driverName.length() * 3) {
+                    name = new byte[driverName.length() * 3];
+                }
+                visitor.visit(license, licenseNumber.length(), name, utf8(driverName, name), driver.getTotals());
+            }
+        }
+    }
+
+    public Statements statements() {
+        return new Statements();
+    }
+
+    // Encodes without allocating; into must hold three bytes per char.
+    private static int utf8(String text, byte[] into) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                into[length++] = (byte) c;
+            } else if (c < 0x800) {
+                into[length++] = (byte) (0xC0 | c >> 6);
+                into[length++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, text.charAt(++i));
+                into[length++] = (byte) (0xF0 | code >> 18);
+                into[length++] = (byte) (0x80 | code >> 12 & 0x3F);
+                into[length++] = (byte) (0x80 | code >> 6 & 0x3F);
+                into[length++] = (byte) (0x80 | code & 0x3F);
+            } else {
+                if (Character.isSurrogate(c)) {
+                    c = '?';
+                }
+                into[length++] = (byte) (0xE0 | c >> 12);
+                into[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                into[length++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return length;
+    }
+
+    // False while a file-backed registry is still filling the license and offender indexes.
+    public boolean isWarm() {
+        return warmed.getCount() == 0;
+    }
+
+    // Violation log entries replayed at open.
+    public long getReplayed() {
+        return log == null ? 0 : log.getReplayed();
+    }
+
+    public void close() throws IOException {
+        if (file != null) {
+            try {
+                log.close();
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    // Builds the in-memory view of a record; drivers with outstanding fines are
+    // ranked once here, before any writer can reach the new object.
+    private Driver materialize(int record) {
+        Driver driver = new Driver(file.name(record), file.license(record), file.totals(record), log, record);
+        long totals = driver.getTotals();
+        if (totals != 0) {
+            OffenderIndex.BY_FINES.add(driver, FineAccumulator.cents(totals));
+            OffenderIndex.BY_COUNT.add(driver, FineAccumulator.count(totals));
+        }
+        if (replayed) {
+            driver.reconcile();
+        }
+        return driver;
+    }
+
+    // Rebuilds the logged violations of drivers whose record is still current;
+    // entries for replaced records went with them.
+    private void replay() throws IOException {
+        log.replay(new ViolationLog.Handler() {
+            @Override
+            public void violation(int record, ViolationType type, long cents, long timestamp) {
+                if (file.isCurrent(record)) {
+                    get(file.license(record)).replayViolation(type, cents, timestamp);
+                }
+            }
+
+            @Override
+            public void waiver(int record) {
+                if (file.isCurrent(record)) {
+                    get(file.license(record)).replayWaiver();
+                }
+            }
+
+            @Override
+            public void payment(int record, String reference, int[] violations, long[] cents) {
+                if (!reference.isEmpty()) {
+                    payments.restore(reference);
+                }
+                if (file.isCurrent(record)) {
+                    get(file.license(record)).replayPayment(violations, cents);
+                }
+            }
+        });
+        for (Driver driver : drivers.values()) {
+            driver.reconcile();
+        }
+        replayed = true;
+    }
+
+    private void warmUp() {
+        try {
+            List<String> licenses = new ArrayList<>(1 << 20);
+            for (int record = 0, records = file.records(); record < records; record++) {
+                String licenseNumber = file.license(record);
+                if (file.find(licenseNumber) != record) {
+                    continue; // replaced by a later registration
+                }
+                licenses.add(licenseNumber);
+                if (licenses.size() == 1 << 20) {
+                    LicenseIndex.DEFAULT.addAll(licenses);
+                    licenses.clear();
+                }
+                if (file.totals(record).sum() != 0) {
+                    get(licenseNumber);
+                }
+            }
+            LicenseIndex.DEFAULT.addAll(licenses);
+        } finally {
+            warmed.countDown();
+        }
+    }
+}
+
+// Fixed-width, memory-mapped driver records with an on-disk open-addressing
+// hash index from license to record, so opening the file costs a few mmap calls
+// no matter how many drivers it holds and pages are read only when touched.
+// Layout: a 4 KB header, the index (one int per slot: record + 1, 0 = empty),
+// then 64-byte records of license (12 bytes), name length and up to 43 name
+// bytes, and the driver's packed fine totals, which are updated in place.
+class DriverFile {
+    private static final long MAGIC = 0x44_52_56_46_49_4C_45_31L; // "DRVFILE1"
+    private static final int HEADER = 4096;
+    private static final int RECORD = 64;
+    private static final int LICENSE_BYTES = 12;
+    private static final int NAME_BYTES = 43;
+    private static final int TOTALS = 56;
+    private static final int CHUNK_SHIFT = 30;
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final int capacity;
+    private final int slots;
+    private final long recordsAt;
+
+    private DriverFile(FileChannel channel, int capacity) throws IOException {
+        this.channel = channel;
+        this.capacity = capacity;
+        this.slots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2;
+        this.recordsAt = align(HEADER + (long) slots * 4);
+        long size = recordsAt + (long) capacity * RECORD;
+        chunks = new MappedByteBuffer[(int) ((size - 1) >>> CHUNK_SHIFT) + 1];
+        for (int i = 0; i < chunks.length; i++) {
+            long position = (long) i << CHUNK_SHIFT;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(1L << CHUNK_SHIFT, size - position));
+        }
+    }
+
+    // Creates the file with room for capacity drivers, or opens it with the capacity it was created with.
+    public static DriverFile open(Path path, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                DriverFile file = new DriverFile(channel, capacity);
+                INT.setVolatile(file.chunks[0], 8, capacity);
+                LONG.setVolatile(file.chunks[0], 0, MAGIC);
+                return file;
+            }
+            ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            if (header.getLong(0) != MAGIC) {
+                throw new IOException(path + " is not a driver file.");
+            }
+            return new DriverFile(channel, header.getInt(8));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int records() {
+        return (int) INT.getVolatile(chunks[0], 12);
+    }
+
+    public int size() {
+        return (int) INT.getVolatile(chunks[0], 16);
+    }
+
+    // Writes a new record and returns its number; callers serialize appends.
+    int append(String licenseNumber, String name) {
+        validateName(name);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int record = records();
+        if (record == capacity) {
+            throw new IllegalStateException("Driver file is full (" + capacity + " drivers).");
+        }
+        long at = recordsAt + (long) record * RECORD;
+        ByteBuffer chunk = chunk(at);
+        int offset = offset(at);
+        for (int i = 0; i < LICENSE_BYTES; i++) {
+            chunk.put(offset + i, i < licenseNumber.length() ? (byte) licenseNumber.charAt(i) : 0);
+        }
+        chunk.put(offset + LICENSE_BYTES, (byte) nameBytes.length);
+        chunk.put(offset + LICENSE_BYTES + 1, nameBytes);
+        LONG.setVolatile(chunk, offset + TOTALS, 0L);
+        INT.setVolatile(chunks[0], 12, record + 1);
+        return record;
+    }
+
+    // Every registry checks names against the record width, so a driver added in
+    // memory could also be kept in a file.
+    static void validateName(String name) {
+        if (name.getBytes(StandardCharsets.UTF_8).length > NAME_BYTES) {
+            throw new IllegalArgumentException("Driver name must be at most " + NAME_BYTES + " bytes.");
+        }
+    }
+
+    // Points the license's index slot at record; returns the record it replaced, or -1.
+    int link(String licenseNumber, int record) {
+        for (long slot = hash(licenseNumber) & (slots - 1); ; slot = (slot + 1) & (slots - 1)) {
+            long at = HEADER + slot * 4;
+            int current = (int) INT.getVolatile(chunk(at), offset(at)) - 1;
+            if (current < 0 || licenseMatches(current, licenseNumber)) {
+                INT.setVolatile(chunk(at), offset(at), record + 1);
+                if (current < 0) {
+                    INT.setVolatile(chunks[0], 16, size() + 1);
+                }
+                return current;
+            }
+        }
+    }
+
+    // Record number for the license, or -1.
+    public int find(String licenseNumber) {
+        for (long slot = hash(licenseNumber) & (slots - 1); ; slot = (slot + 1) & (slots - 1)) {
+            long at = HEADER + slot * 4;
+            int record = (int) INT.getVolatile(chunk(at), offset(at)) - 1;
+            if (record < 0 || licenseMatches(record, licenseNumber)) {
+                return record;
+            }
+        }
+    }
+
+    public String license(int record) {
+        long at = recordsAt + (long) record * RECORD;
+        ByteBuffer chunk = chunk(at);
+        int offset = offset(at);
+        char[] license = new char[LICENSE_BYTES];
+        int length = 0;
+        while (length < LICENSE_BYTES && chunk.get(offset + length) != 0) {
+            license[length] = (char) chunk.get(offset + length);
+            length++;
+        }
+        return new String(license, 0, length);
+    }
+
+    public String name(int record) {
+        long at = recordsAt + (long) record * RECORD;
+        ByteBuffer chunk = chunk(at);
+        int offset = offset(at);
+        byte[] name = new byte[chunk.get(offset + LICENSE_BYTES)];
+        chunk.get(offset + LICENSE_BYTES + 1, name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    // Copies the license bytes into the given array and returns their count.
+    int license(int record, byte[] into) {
+        long at = recordsAt + (long) record * RECORD;
+        ByteBuffer chunk = chunk(at);
+        int offset = offset(at);
+        int length = 0;
+        while (length < LICENSE_BYTES && chunk.get(offset + length) != 0) {
+            into[length] = chunk.get(offset + length);
+            length++;
+        }
+        return length;
+    }
+
+    // Copies the UTF-8 name into the given array (at least NAME_BYTES long) and returns its length.
+    int name(int record, byte[] into) {
+        long at = recordsAt + (long) record * RECORD;
+        ByteBuffer chunk = chunk(at);
+        int offset = offset(at);
+        int length = chunk.get(offset + LICENSE_BYTES);
+        chunk.get(offset + LICENSE_BYTES + 1, into, 0, length);
+        return length;
+    }
+
+    long totalsWord(int record) {
+        long at = recordsAt + (long) record * RECORD + TOTALS;
+        return (long) LONG.getVolatile(chunk(at), offset(at));
+    }
+
+    // False if a later registration replaced this record. Hashes the stored
+    // license bytes the way String.hashCode would, so no String is built.
+    boolean isCurrent(int record) {
+        long at = recordsAt + (long) record * RECORD;
+        ByteBuffer chunk = chunk(at);
+        int offset = offset(at);
+        int hashCode = 0;
+        for (int i = 0; i < LICENSE_BYTES && chunk.get(offset + i) != 0; i++) {
+            hashCode = 31 * hashCode + chunk.get(offset + i);
+        }
+        for (long slot = hash(hashCode) & (slots - 1); ; slot = (slot + 1) & (slots - 1)) {
+            long slotAt = HEADER + slot * 4;
+            int current = (int) INT.getVolatile(chunk(slotAt), offset(slotAt)) - 1;
+            if (current < 0 || current == record) {
+                return current == record;
+            }
+            if (sameLicense(current, record)) {
+                return false;
+            }
+        }
+    }
+
+    // The record's totals word, updated in place.
+    public FineAccumulator totals(int record) {
+        long at = recordsAt + (long) record * RECORD + TOTALS;
+        return new FineAccumulator(chunk(at), offset(at));
+    }
+
+    public void close() throws IOException {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+        channel.close();
+    }
+
+    private boolean licenseMatches(int record, String licenseNumber) {
+        long at = recordsAt + (long) record * RECORD;
+        ByteBuffer chunk = chunk(at);
+        int offset = offset(at);
+        for (int i = 0; i < LICENSE_BYTES; i++) {
+            int expected = i < licenseNumber.length() ? licenseNumber.charAt(i) : 0;
+            if (chunk.get(offset + i) != expected) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameLicense(int record, int other) {
+        long at = recordsAt + (long) record * RECORD;
+        long otherAt = recordsAt + (long) other * RECORD;
+        for (int i = 0; i < LICENSE_BYTES; i++) {
+            if (chunk(at).get(offset(at) + i) != chunk(otherAt).get(offset(otherAt) + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer chunk(long at) {
+        return chunks[(int) (at >>> CHUNK_SHIFT)];
+    }
+
+    private static int offset(long at) {
+        return (int) (at & ((1L << CHUNK_SHIFT) - 1));
+    }
+
+    private static long hash(String licenseNumber) {
+        return hash(licenseNumber.hashCode());
+    }
+
+    private static long hash(int hashCode) {
+        long hash = hashCode * 0x9E3779B97F4A7C15L;
+        return (hash ^ (hash >>> 29)) & Long.MAX_VALUE;
+    }
+
+    private static long align(long position) {
+        return (position + HEADER - 1) / HEADER * HEADER;
+    }
+}
+
+// Append-only log of the changes to file-backed drivers' violations, kept next
+// to the DriverFile so a restarted registry gets its violation rows back, not
+// just the totals. Each entry is [length][crc32][type][fields] in mapped 16 MB
+// segments; a zero length marks the end, and a torn entry at the tail is
+// dropped on replay. Entries name the driver by DriverFile record and its
+// violations by number; payments carry their bank reference. Writers are
+// called under their driver's lock, so they only share an atomic reservation
+// of log space and copy their entry in without a common monitor. Entries can
+// therefore complete out of order: replay stops at the first one a crash left
+// unwritten and clears everything after it. A flush thread forces new entries
+// every FORCE_INTERVAL_MILLIS, or sooner after FORCE_EVERY appends, so a machine
+// crash loses at most that much while the totals kept it; such drivers are
+// caught by Driver.reconcile().
+class ViolationLog {
+    interface Handler {
+        void violation(int record, ViolationType type, long cents, long timestamp);
+
+        void waiver(int record);
+
+        void payment(int record, String reference, int[] violations, long[] cents);
+    }
+
+    private static final long MAGIC = 0x56_49_4F_4C_4C_4F_47_31L; // "VIOLLOG1"
+    private static final int SEGMENT_SIZE = 16 << 20;
+    private static final int HEADER_SIZE = 8;
+    private static final int SKIP_TO_NEXT_SEGMENT = -1;
+    private static final byte VIOLATION = 1;
+    private static final byte WAIVER = 2;
+    private static final byte PAYMENT = 3;
+    private static final int MAX_REFERENCE_BYTES = 0xFFFF;
+    static final long FORCE_INTERVAL_MILLIS = 200;
+    static final int FORCE_EVERY = 4096;
+
+    private final FileChannel channel;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private final AtomicLong writePosition = new AtomicLong(Long.BYTES);
+    // Appenders hold it shared while they write, so the flush thread, briefly
+    // holding it exclusively, reads an end no entry before it is still writing to.
+    private final StampedLock writing = new StampedLock();
+    private final AtomicInteger unforced = new AtomicInteger();
+    private final Object forcing = new Object();
+    private final Thread flusher;
+    private volatile boolean closed;
+    private volatile long forcedTo = Long.BYTES;
+    private long replayed;
+
+    private ViolationLog(FileChannel channel) {
+        this.channel = channel;
+        this.flusher = new Thread(this::flush, "violation-log-flush");
+        flusher.setDaemon(true);
+    }
+
+    public static ViolationLog open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            ViolationLog log = new ViolationLog(channel);
+            boolean created = channel.size() == 0;
+            MappedByteBuffer first = log.segment(0);
+            if (created) {
+                first.putLong(0, MAGIC);
+            } else if (first.getLong(0) != MAGIC) {
+                throw new IOException(path + " is not a violation log.");
+            }
+            log.flusher.start();
+            return log;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    void logViolation(int record, ViolationType type, long cents, long timestamp) {
+        append(ByteBuffer.allocate(1 + 4 + 1 + 8 + 8)
+                .put(VIOLATION).putInt(record).put(type.getCode()).putLong(cents).putLong(timestamp));
+    }
+
+    void logWaiver(int record) {
+        append(ByteBuffer.allocate(1 + 4).put(WAIVER).putInt(record));
+    }
+
+    // The cents paid toward each numbered violation, and the bank reference, if any.
+    void logPayment(int record, String reference, int[] violations, long[] cents, int count) {
+        byte[] referenceBytes = reference.getBytes(StandardCharsets.UTF_8);
+        if (referenceBytes.length > MAX_REFERENCE_BYTES) {
+            throw new IllegalArgumentException("Payment reference is too long.");
+        }
+        int length = 1 + 4 + 2 + referenceBytes.length + 4 + count * 12;
+        if (length > SEGMENT_SIZE - HEADER_SIZE) {
+            throw new IllegalArgumentException("Payment covers too many violations to log.");
+        }
+        ByteBuffer entry = ByteBuffer.allocate(length);
+        entry.put(PAYMENT).putInt(record).putShort((short) referenceBytes.length).put(referenceBytes).putInt(count);
+        for (int i = 0; i < count; i++) {
+            entry.putInt(violations[i]).putLong(cents[i]);
+        }
+        append(entry);
+    }
+
+    // Hands every entry to the handler, oldest first; called once, before any append.
+    synchronized void replay(Handler handler) throws IOException {
+        CRC32 crc = new CRC32();
+        long position = Long.BYTES;
+        while (true) {
+            int offset = (int) (position % SEGMENT_SIZE);
+            if (SEGMENT_SIZE - offset < HEADER_SIZE) {
+                position += SEGMENT_SIZE - offset;
+                continue;
+            }
+            MappedByteBuffer segment = segment(position);
+            int length = segment.getInt(offset);
+            if (length == SKIP_TO_NEXT_SEGMENT) {
+                position += SEGMENT_SIZE - offset;
+                continue;
+            }
+            if (length <= 0 || length > SEGMENT_SIZE - offset - HEADER_SIZE) {
+                break;
+            }
+            ByteBuffer entry = segment.slice(offset + HEADER_SIZE, length);
+            crc.reset();
+            crc.update(entry.duplicate());
+            if ((int) crc.getValue() != segment.getInt(offset + Integer.BYTES)) {
+                break; // torn write at the tail of the log
+            }
+            byte type = entry.get();
+            switch (type) {
+                case VIOLATION:
+                    handler.violation(entry.getInt(), ViolationType.fromCode(entry.get()), entry.getLong(), entry.getLong());
+                    break;
+                case WAIVER:
+                    handler.waiver(entry.getInt());
+                    break;
+                case PAYMENT:
+                    int record = entry.getInt();
+                    byte[] reference = new byte[entry.getShort() & 0xFFFF];
+                    entry.get(reference);
+                    int[] violations = new int[entry.getInt()];
+                    long[] cents = new long[violations.length];
+                    for (int i = 0; i < violations.length; i++) {
+                        violations[i] = entry.getInt();
+                        cents[i] = entry.getLong();
+                    }
+                    handler.payment(record, new String(reference, StandardCharsets.UTF_8), violations, cents);
+                    break;
+                default:
+                    throw new IOException("Unknown violation log entry type: " + type);
+            }
+            replayed++;
+            position += HEADER_SIZE + length;
+        }
+
+        // Clear whatever a crash left after the last good entry, including entries
+        // that completed past an unwritten one, so none can be mistaken for an
+        // entry once new appends land in front of it.
+        long end = channel.size();
+        for (long at = position; at < end; at = (at / SEGMENT_SIZE + 1) * SEGMENT_SIZE) {
+            MappedByteBuffer tail = segment(at);
+            for (int i = (int) (at % SEGMENT_SIZE); i < SEGMENT_SIZE; i++) {
+                if (tail.get(i) != 0) {
+                    tail.put(i, (byte) 0);
+                }
+            }
+        }
+        writePosition.set(position);
+        forcedTo = position;
+    }
+
+    public synchronized long getReplayed() {
+        return replayed;
+    }
+
+    // Log bytes known to be on disk.
+    long getForced() {
+        return forcedTo;
+    }
+
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            force();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void append(ByteBuffer entry) {
+        int length = entry.position();
+        CRC32 crc = new CRC32();
+        crc.update(entry.array(), 0, length);
+        long stamp = writing.readLock();
+        try {
+            long position = reserve(HEADER_SIZE + length);
+            int offset = (int) (position % SEGMENT_SIZE);
+            MappedByteBuffer segment = segment(position);
+            segment.put(offset + HEADER_SIZE, entry.array(), 0, length);
+            segment.putInt(offset + Integer.BYTES, (int) crc.getValue());
+            segment.putInt(offset, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not extend the violation log.", e);
+        } finally {
+            writing.unlockRead(stamp);
+        }
+        if (unforced.incrementAndGet() == FORCE_EVERY) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    // Claims size bytes for an entry, moving to the next segment if they do not fit
+    // in this one. The segment is mapped before the claim, so a failure leaves no gap.
+    private long reserve(int size) throws IOException {
+        while (true) {
+            long position = writePosition.get();
+            int room = SEGMENT_SIZE - (int) (position % SEGMENT_SIZE);
+            long start = room < size ? position + room : position;
+            segment(start);
+            if (writePosition.compareAndSet(position, start + size)) {
+                if (start != position && room >= Integer.BYTES) {
+                    segment(position).putInt((int) (position % SEGMENT_SIZE), SKIP_TO_NEXT_SEGMENT);
+                }
+                return start;
+            }
+        }
+    }
+
+    private void flush() {
+        while (!closed) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FORCE_INTERVAL_MILLIS));
+            try {
+                force();
+            } catch (UncheckedIOException e) {
+                // Kept unforced; the next pass or close tries again.
+            }
+        }
+    }
+
+    // Forces everything appended so far that is not yet on disk. Not under the
+    // log's monitor, which an appender may need to map a segment while it holds
+    // the write lock shared.
+    private void force() {
+        synchronized (forcing) {
+            unforced.set(0);
+            long stamp = writing.writeLock();
+            long end = writePosition.get();
+            writing.unlockWrite(stamp);
+            try {
+                for (long position = forcedTo; position < end; ) {
+                    int offset = (int) (position % SEGMENT_SIZE);
+                    int length = (int) Math.min(SEGMENT_SIZE - offset, end - position);
+                    segment(position).force(offset, length);
+                    position += length;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not force the violation log.", e);
+            }
+            forcedTo = end;
+        }
+    }
+
+    private MappedByteBuffer segment(long position) throws IOException {
+        int index = (int) (position / SEGMENT_SIZE);
+        MappedByteBuffer[] mapped = segments;
+        return index < mapped.length ? mapped[index] : map(index);
+    }
+
+    private synchronized MappedByteBuffer map(int index) throws IOException {
+        MappedByteBuffer[] mapped = segments;
+        if (index >= mapped.length) {
+            mapped = Arrays.copyOf(mapped, index + 1);
+            for (int i = segments.length; i <= index; i++) {
+                mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * SEGMENT_SIZE, SEGMENT_SIZE);
+            }
+            segments = mapped;
+        }
+        return mapped[index];
+    }
+}
+
+interface TrafficViolation {
+    void validateViolation() throws InvalidViolationException;
+}
+
+// The violation catalog. Codes are ordinal + 1 and are what the event store
+// keeps, so new types go at the end.
+enum ViolationType {
+    SPEEDING("Speeding"),
+    PARKING("Parking"),
+    SIGNAL_VIOLATION("Signal Violation");
+
+    private static final ViolationType[] BY_CODE = values();
+
+    private final String label;
+
+    ViolationType(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public byte getCode() {
+        return (byte) (ordinal() + 1);
+    }
+
+    public static ViolationType fromCode(byte code) {
+        return BY_CODE[code - 1];
+    }
+
+    public static int count() {
+        return BY_CODE.length;
+    }
+
+    // A string switch compiles to a hashCode jump plus one equals; no scan, no allocation.
+    public static ViolationType fromLabel(String label) {
+        switch (label) {
+            case "Speeding":
+                return SPEEDING;
+            case "Parking":
+                return PARKING;
+            case "Signal Violation":
+                return SIGNAL_VIOLATION;
+            default:
+                return null;
+        }
+    }
+}
+
+// Fines per violation type with repeat-offender tiers, resolved once into a
+// cents table indexed by the number of prior offenses. Loaded from a properties
+// file such as:
+//   speeding.fine=150
+//   speeding.escalation=1.5,2,3   (multipliers for 1, 2, 3+ priors)
+//   lookback.days=365
+class FineSchedule {
+    private static final double[] DEFAULT_FINES = {150, 50, 100};
+    private static final String DEFAULT_ESCALATION = "1.5,2";
+
+    private static volatile FineSchedule current = fromProperties(new Properties());
+
+    private final long[][] centsByPriors;
+    private final long lookbackMillis;
+
+    private FineSchedule(long[][] centsByPriors, long lookbackMillis) {
+        this.centsByPriors = centsByPriors;
+        this.lookbackMillis = lookbackMillis;
+    }
+
+    public static FineSchedule current() {
+        return current;
+    }
+
+    public static void install(FineSchedule schedule) {
+        current = schedule;
+    }
+
+    public static FineSchedule load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        return fromProperties(properties);
+    }
+
+    static FineSchedule fromProperties(Properties properties) {
+        ViolationType[] types = ViolationType.values();
+        long[][] centsByPriors = new long[types.length][];
+        for (ViolationType type : types) {
+            String key = type.name().toLowerCase(Locale.ROOT);
+            double fine = number(properties, key + ".fine", String.valueOf(DEFAULT_FINES[type.ordinal()]));
+            if (fine <= 0) {
+                throw new IllegalArgumentException(key + ".fine must be positive.");
+            }
+            String[] tiers = properties.getProperty(key + ".escalation", DEFAULT_ESCALATION).split(",");
+            long[] cents = new long[tiers[0].trim().isEmpty() ? 1 : tiers.length + 1];
+            cents[0] = Math.round(fine * 100);
+            for (int tier = 1; tier < cents.length; tier++) {
+                double multiplier = parse(key + ".escalation", tiers[tier - 1]);
+                if (multiplier < 1) {
+                    throw new IllegalArgumentException(key + ".escalation multipliers must be at least 1.");
+                }
+                cents[tier] = Math.round(fine * multiplier * 100);
+            }
+            centsByPriors[type.ordinal()] = cents;
+        }
+        double days = number(properties, "lookback.days", "365");
+        return new FineSchedule(centsByPriors, Math.round(days * 86_400_000L));
+    }
+
+    public long fineCents(ViolationType type, int priors) {
+        long[] tiers = centsByPriors[type.ordinal()];
+        return tiers[Math.min(priors, tiers.length - 1)];
+    }
+
+    public long getLookbackMillis() {
+        return lookbackMillis;
+    }
+
+    private static double number(Properties properties, String key, String fallback) {
+        return parse(key, properties.getProperty(key, fallback));
+    }
+
+    private static double parse(String key, String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (ViolationType type : ViolationType.values()) {
+            long[] tiers = centsByPriors[type.ordinal()];
+            text.append(type.getLabel()).append(": $").append(tiers[0] / 100.0);
+            for (int tier = 1; tier < tiers.length; tier++) {
+                text.append(tier == 1 ? ", repeat " : ", ").append('$').append(tiers[tier] / 100.0);
+            }
+            text.append('\n');
+        }
+        return text.append("Repeats counted over ").append(lookbackMillis / 86_400_000L).append(" days").toString();
+    }
+}
+
+class SpecificViolation implements TrafficViolation {
+    private String violationType;
+    private double fineAmount;
+    private ViolationType type;
+
+    public SpecificViolation(String violationType, double fineAmount) throws InvalidViolationException {
+        this.violationType = violationType;
+        this.fineAmount = fineAmount;
+        validateViolation();
+    }
+
+    @Override
+    public void validateViolation() throws InvalidViolationException {
+        type = ViolationType.fromLabel(violationType);
+        if (type == null) {
+            throw new InvalidViolationException("Invalid violation type.");
+        }
+        if (!Double.isFinite(fineAmount) || fineAmount <= 0) {
+            throw new InvalidViolationException("Fine amount must be positive.");
+        }
+    }
+
+    public String getViolationDetails() {
+        return "Violation Type: " + violationType + ", Fine Amount: $" + fineAmount;
+    }
+
+    public double getFineAmount() {
+        return fineAmount;
+    }
+
+    public ViolationType getType() {
+        return type;
+    }
+}
+
+class ViolationRecord {
+    private final int id;
+    private final byte typeCode;
+    private final long fineCents;
+    private final long settledCents;
+    private final long timestamp;
+
+    ViolationRecord(int id, byte typeCode, long fineCents, long settledCents, long timestamp) {
+        this.id = id;
+        this.typeCode = typeCode;
+        this.fineCents = fineCents;
+        this.settledCents = settledCents;
+        this.timestamp = timestamp;
+    }
+
+    // The violation's number among its driver's, counted from 1 in the order
+    // recorded, as payments refer to it.
+    public int getId() {
+        return id;
+    }
+
+    public String getViolationType() {
+        return ViolationType.fromCode(typeCode).getLabel();
+    }
+
+    public long getFineCents() {
+        return fineCents;
+    }
+
+    public double getFineAmount() {
+        return fineCents / 100.0;
+    }
+
+    // Paid or waived so far.
+    public long getSettledCents() {
+        return settledCents;
+    }
+
+    public long getOutstandingCents() {
+        return fineCents - settledCents;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + id + " Violation Type: " + getViolationType() + ", Fine Amount: $" + getFineAmount()
+                + ", Outstanding: $" + getOutstandingCents() / 100.0 + ", Time: " + Instant.ofEpochMilli(timestamp);
+    }
+}
+
+// Append-only record of every violation, kept as primitive columns. Rows are
+// split into stripes by driver so concurrent ingest workers rarely share a
+// lock, and all of one driver's rows live in the same stripe.
+class ViolationStore {
+    static final ViolationStore DEFAULT = new ViolationStore();
+
+    private static final int STRIPES = 16;
+
+    private static class Stripe {
+        int[] drivers = new int[1024];
+        int[] numbers = new int[1024];
+        byte[] types = new byte[1024];
+        long[] cents = new long[1024];
+        long[] settled = new long[1024];
+        long[] timestamps = new long[1024];
+        int size;
+
+        synchronized int append(int driver, int number, byte type, long fineCents, long timestamp) {
+            if (size == drivers.length) {
+                int capacity = size * 2;
+                drivers = Arrays.copyOf(drivers, capacity);
+                numbers = Arrays.copyOf(numbers, capacity);
+                types = Arrays.copyOf(types, capacity);
+                cents = Arrays.copyOf(cents, capacity);
+                settled = Arrays.copyOf(settled, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+            }
+            drivers[size] = driver;
+            numbers[size] = number;
+            types[size] = type;
+            cents[size] = fineCents;
+            timestamps[size] = timestamp;
+            return size++;
+        }
+
+        synchronized ViolationRecord read(int row) {
+            if (row >= size) {
+                throw new IllegalArgumentException("No such violation.");
+            }
+            return new ViolationRecord(numbers[row], types[row], cents[row], settled[row], timestamps[row]);
+        }
+
+        synchronized long settle(int driver, int row, long maxCents) {
+            check(driver, row);
+            long paid = Math.min(maxCents, cents[row] - settled[row]);
+            settled[row] += paid;
+            return paid;
+        }
+
+        synchronized long outstanding(int driver, int row) {
+            check(driver, row);
+            return cents[row] - settled[row];
+        }
+
+        private void check(int driver, int row) {
+            if (row < 0 || row >= size || drivers[row] != driver) {
+                throw new IllegalArgumentException("No such violation for this driver.");
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        // Below size only settled is ever written again, and slices never read it,
+        // so the other columns can be read outside the lock once the arrays have
+        // been taken under it.
+        synchronized void slices(int rowsPerSlice, List<Slice> into) {
+            for (int start = 0; start < size; start += rowsPerSlice) {
+                into.add(new Slice(types, cents, timestamps, start, Math.min(size, start + rowsPerSlice)));
+            }
+        }
+    }
+
+    private static class Slice {
+        final byte[] types;
+        final long[] cents;
+        final long[] timestamps;
+        final int start;
+        final int end;
+
+        Slice(byte[] types, long[] cents, long[] timestamps, int start, int end) {
+            this.types = types;
+            this.cents = cents;
+            this.timestamps = timestamps;
+            this.start = start;
+            this.end = end;
+        }
+
+        void addTo(FineTotals totals, long from, long to) {
+            long[] sums = new long[ViolationType.count()];
+            long[] counts = new long[sums.length];
+            for (int i = start; i < end; i++) {
+                long timestamp = timestamps[i];
+                if (timestamp >= from && timestamp < to) {
+                    int type = types[i] - 1;
+                    sums[type] += cents[i];
+                    counts[type]++;
+                }
+            }
+            for (int type = 0; type < sums.length; type++) {
+                totals.add(type, sums[type], counts[type]);
+            }
+        }
+    }
+
+    private static final int ROWS_PER_SLICE = 1 << 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public ViolationStore() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    // Stores the driver's violation under its number and returns the row within
+    // the driver's stripe.
+    public int append(int driverId, int number, byte typeCode, long fineCents, long timestamp) {
+        return stripes[driverId & (STRIPES - 1)].append(driverId, number, typeCode, fineCents, timestamp);
+    }
+
+    public ViolationRecord read(int driverId, int row) {
+        return stripes[driverId & (STRIPES - 1)].read(row);
+    }
+
+    // Marks up to maxCents of the violation as paid or waived and returns how much was.
+    public long settle(int driverId, int row, long maxCents) {
+        return stripes[driverId & (STRIPES - 1)].settle(driverId, row, maxCents);
+    }
+
+    public long outstanding(int driverId, int row) {
+        return stripes[driverId & (STRIPES - 1)].outstanding(driverId, row);
+    }
+
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    // Fines recorded with from <= timestamp < to, by type. Every stripe is cut
+    // into fixed slices that are scanned in parallel, so one busy stripe does
+    // not leave the other cores idle.
+    public FineTotals totalsBetween(long from, long to) {
+        List<Slice> slices = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            stripe.slices(ROWS_PER_SLICE, slices);
+        }
+        return slices.parallelStream().collect(FineTotals::new,
+                (totals, slice) -> slice.addTo(totals, from, to), FineTotals::addAll);
+    }
+}
+
+// One driver's rows in the store ordered by timestamp, with running fine totals
+// overall and per type, so a time range is two binary searches and a subtraction.
+// Camera events normally arrive in order; a late one is slotted in place.
+class ViolationTimeline {
+    private static final int TYPES = ViolationType.count();
+
+    private int[] rows = new int[4];
+    private long[] timestamps = new long[4];
+    private byte[] types = new byte[4];
+    private long[] cumulativeCents = new long[5];
+    // Entry i * TYPES + t is the count (or cents) of type t among the first i rows.
+    private int[] cumulativeTypeCounts = new int[5 * TYPES];
+    private long[] cumulativeTypeCents = new long[5 * TYPES];
+    private int size;
+
+    // Returns the index the violation was placed at.
+    synchronized int add(int row, long timestamp, long cents, byte type) {
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            types = Arrays.copyOf(types, size * 2);
+            cumulativeCents = Arrays.copyOf(cumulativeCents, size * 2 + 1);
+            cumulativeTypeCounts = Arrays.copyOf(cumulativeTypeCounts, (size * 2 + 1) * TYPES);
+            cumulativeTypeCents = Arrays.copyOf(cumulativeTypeCents, (size * 2 + 1) * TYPES);
+        }
+        int at = upperBound(timestamp);
+        int slot = type - 1;
+        if (at < size) {
+            System.arraycopy(rows, at, rows, at + 1, size - at);
+            System.arraycopy(timestamps, at, timestamps, at + 1, size - at);
+            System.arraycopy(types, at, types, at + 1, size - at);
+            System.arraycopy(cumulativeCents, at + 1, cumulativeCents, at + 2, size - at);
+            System.arraycopy(cumulativeTypeCounts, (at + 1) * TYPES, cumulativeTypeCounts, (at + 2) * TYPES,
+                    (size - at) * TYPES);
+            System.arraycopy(cumulativeTypeCents, (at + 1) * TYPES, cumulativeTypeCents, (at + 2) * TYPES,
+                    (size - at) * TYPES);
+            for (int i = at + 2; i <= size + 1; i++) {
+                cumulativeCents[i] += cents;
+                cumulativeTypeCounts[i * TYPES + slot]++;
+                cumulativeTypeCents[i * TYPES + slot] += cents;
+            }
+        }
+        rows[at] = row;
+        timestamps[at] = timestamp;
+        types[at] = type;
+        cumulativeCents[at + 1] = cumulativeCents[at] + cents;
+        System.arraycopy(cumulativeTypeCounts, at * TYPES, cumulativeTypeCounts, (at + 1) * TYPES, TYPES);
+        System.arraycopy(cumulativeTypeCents, at * TYPES, cumulativeTypeCents, (at + 1) * TYPES, TYPES);
+        cumulativeTypeCounts[(at + 1) * TYPES + slot]++;
+        cumulativeTypeCents[(at + 1) * TYPES + slot] += cents;
+        size++;
+        return at;
+    }
+
+    synchronized int rowAt(int index) {
+        return rows[index];
+    }
+
+    synchronized int[] rowsBetween(long from, long to) {
+        int lo = lowerBound(from);
+        int hi = Math.max(lo, lowerBound(to));
+        return Arrays.copyOfRange(rows, lo, hi);
+    }
+
+    synchronized long centsBetween(long from, long to) {
+        int lo = lowerBound(from);
+        int hi = Math.max(lo, lowerBound(to));
+        return cumulativeCents[hi] - cumulativeCents[lo];
+    }
+
+    synchronized int countBetween(long from, long to) {
+        int lo = lowerBound(from);
+        return Math.max(lo, lowerBound(to)) - lo;
+    }
+
+    synchronized int countType(byte type, long from, long to) {
+        int lo = lowerBound(from);
+        int hi = Math.max(lo, lowerBound(to));
+        return cumulativeTypeCounts[hi * TYPES + type - 1] - cumulativeTypeCounts[lo * TYPES + type - 1];
+    }
+
+    // Adds the count and fine cents of each type recorded with from <= timestamp < to.
+    synchronized void tally(long from, long to, long[] counts, long[] sums) {
+        int lo = lowerBound(from) * TYPES;
+        int hi = Math.max(lo, lowerBound(to) * TYPES);
+        for (int t = 0; t < TYPES; t++) {
+            counts[t] += cumulativeTypeCounts[hi + t] - cumulativeTypeCounts[lo + t];
+            sums[t] += cumulativeTypeCents[hi + t] - cumulativeTypeCents[lo + t];
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    // First index with timestamp >= key.
+    private int lowerBound(long key) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // First index with timestamp > key.
+    private int upperBound(long key) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps[mid] <= key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
+
+// Fine cents and violation counts by violation type.
+class FineTotals {
+    private final long[] cents = new long[ViolationType.count()];
+    private final long[] counts = new long[ViolationType.count()];
+
+    void add(int typeIndex, long fineCents, long count) {
+        cents[typeIndex] += fineCents;
+        counts[typeIndex] += count;
+    }
+
+    void addAll(FineTotals other) {
+        for (int i = 0; i < cents.length; i++) {
+            add(i, other.cents[i], other.counts[i]);
+        }
+    }
+
+    public long getCents(ViolationType type) {
+        return cents[type.ordinal()];
+    }
+
+    public long getCount(ViolationType type) {
+        return counts[type.ordinal()];
+    }
+
+    public long getTotalCents() {
+        return Arrays.stream(cents).sum();
+    }
+
+    public long getTotalCount() {
+        return Arrays.stream(counts).sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (ViolationType type : ViolationType.values()) {
+            text.append(type.getLabel()).append(": ").append(getCount(type))
+                    .append(" ($").append(getCents(type) / 100.0).append("), ");
+        }
+        return text.append("Total: ").append(getTotalCount())
+                .append(" ($").append(getTotalCents() / 100.0).append(')').toString();
+    }
+}
+
+// Fines issued per violation type per UTC day, counted as violations are
+// recorded so daily, weekly and monthly reports read a few counters per day
+// instead of every violation. Resetting a driver does not change what was issued.
+class FineRollup {
+    static final FineRollup DEFAULT = new FineRollup();
+
+    enum Period {
+        DAY, WEEK, MONTH;
+
+        LocalDate start(LocalDate day) {
+            switch (this) {
+                case WEEK:
+                    return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                case MONTH:
+                    return day.withDayOfMonth(1);
+                default:
+                    return day;
+            }
+        }
+    }
+
+    // Adders rather than one atomic per counter: every ingest worker hits the same day.
+    private static class Day {
+        final LongAdder[] cents = new LongAdder[ViolationType.count()];
+        final LongAdder[] counts = new LongAdder[ViolationType.count()];
+
+        Day() {
+            for (int i = 0; i < cents.length; i++) {
+                cents[i] = new LongAdder();
+                counts[i] = new LongAdder();
+            }
+        }
+    }
+
+    private final ConcurrentSkipListMap<Long, Day> days = new ConcurrentSkipListMap<>();
+
+    public void record(ViolationType type, long fineCents, long timestamp) {
+        long epochDay = Math.floorDiv(timestamp, 86_400_000L);
+        Day day = days.get(epochDay);
+        if (day == null) {
+            day = days.computeIfAbsent(epochDay, key -> new Day());
+        }
+        day.cents[type.ordinal()].add(fineCents);
+        day.counts[type.ordinal()].increment();
+    }
+
+    // Totals for each period between from and to (inclusive), keyed by the first
+    // day of the period and oldest first. Days outside the range are not counted,
+    // even when their week or month is.
+    public SortedMap<LocalDate, FineTotals> report(Period period, LocalDate from, LocalDate to) {
+        SortedMap<LocalDate, FineTotals> report = new TreeMap<>();
+        for (Map.Entry<Long, Day> entry : days.subMap(from.toEpochDay(), true, to.toEpochDay(), true).entrySet()) {
+            LocalDate start = period.start(LocalDate.ofEpochDay(entry.getKey()));
+            FineTotals totals = report.computeIfAbsent(start, key -> new FineTotals());
+            Day day = entry.getValue();
+            for (int i = 0; i < day.cents.length; i++) {
+                totals.add(i, day.cents[i].sum(), day.counts[i].sum());
+            }
+        }
+        return report;
+    }
+}
+
+// Thresholds that suspend a license, each over a rolling window, plus the
+// points each violation type carries. Loaded from a properties file such as:
+//   speeding.points=3
+//   rules=repeat-speeding,points
+//   rule.repeat-speeding.type=speeding
+//   rule.repeat-speeding.count=5      (or .points=12, or .fines=2000 in dollars)
+//   rule.repeat-speeding.days=365
+class SuspensionRules {
+    private static final int[] DEFAULT_POINTS = {3, 0, 4};
+    private static final String DEFAULT_RULES = "rules=repeat-speeding,points\n"
+            + "rule.repeat-speeding.type=speeding\nrule.repeat-speeding.count=5\nrule.repeat-speeding.days=365\n"
+            + "rule.points.points=12\nrule.points.days=730\n";
+
+    private static volatile SuspensionRules current = defaults();
+
+    enum Measure {
+        COUNT("violations"), POINTS("points"), FINES("of fines");
+
+        private final String unit;
+
+        Measure(String unit) {
+            this.unit = unit;
+        }
+    }
+
+    static class Rule {
+        private final String name;
+        private final ViolationType type;
+        private final Measure measure;
+        private final long threshold;
+        private final long windowMillis;
+
+        Rule(String name, ViolationType type, Measure measure, long threshold, long windowMillis) {
+            this.name = name;
+            this.type = type;
+            this.measure = measure;
+            this.threshold = threshold;
+            this.windowMillis = windowMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getThreshold() {
+            return threshold;
+        }
+
+        public long getWindowMillis() {
+            return windowMillis;
+        }
+
+        // The rule's measure over per-type counts and fine cents.
+        long measure(long[] counts, long[] sums, int[] points) {
+            long value = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (type == null || type.ordinal() == i) {
+                    value += amount(counts[i], sums[i], points[i]);
+                }
+            }
+            return value;
+        }
+
+        // What one violation adds to the measure.
+        long measure(ViolationType violation, long cents, int[] points) {
+            return type == null || type == violation ? amount(1, cents, points[violation.ordinal()]) : 0;
+        }
+
+        private long amount(long count, long cents, int pointsEach) {
+            switch (measure) {
+                case COUNT:
+                    return count;
+                case POINTS:
+                    return count * pointsEach;
+                default:
+                    return cents;
+            }
+        }
+
+        // A measured value in the rule's unit; fines are kept in cents.
+        public String format(long value) {
+            String amount = measure == Measure.FINES ? "$" + value / 100.0 : String.valueOf(value);
+            return amount + " " + (type == null ? "" : type.getLabel() + " ") + measure.unit;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + format(threshold) + " within " + windowMillis / 86_400_000L + " days";
+        }
+    }
+
+    private final List<Rule> rules;
+    private final int[] points;
+
+    private SuspensionRules(List<Rule> rules, int[] points) {
+        this.rules = rules;
+        this.points = points;
+    }
+
+    public static SuspensionRules current() {
+        return current;
+    }
+
+    public static void install(SuspensionRules rules) {
+        current = rules;
+    }
+
+    public static SuspensionRules load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        return fromProperties(properties);
+    }
+
+    private static SuspensionRules defaults() {
+        Properties properties = new Properties();
+        try {
+            properties.load(new StringReader(DEFAULT_RULES));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return fromProperties(properties);
+    }
+
+    static SuspensionRules fromProperties(Properties properties) {
+        int[] points = new int[ViolationType.count()];
+        for (ViolationType type : ViolationType.values()) {
+            String key = type.name().toLowerCase(Locale.ROOT) + ".points";
+            points[type.ordinal()] = (int) number(properties, key, String.valueOf(DEFAULT_POINTS[type.ordinal()]));
+        }
+        List<Rule> rules = new ArrayList<>();
+        for (String name : properties.getProperty("rules", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            String key = "rule." + name + ".";
+            ViolationType type = null;
+            String typeName = properties.getProperty(key + "type");
+            if (typeName != null) {
+                try {
+                    type = ViolationType.valueOf(typeName.trim().toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown violation type for " + key + "type: " + typeName);
+                }
+            }
+            Measure measure = null;
+            long threshold = 0;
+            for (Measure candidate : Measure.values()) {
+                String value = properties.getProperty(key + candidate.name().toLowerCase(Locale.ROOT));
+                if (value != null) {
+                    if (measure != null) {
+                        throw new IllegalArgumentException("Rule " + name + " must set only one of count, points or fines.");
+                    }
+                    measure = candidate;
+                    double limit = parse(key + candidate.name().toLowerCase(Locale.ROOT), value);
+                    threshold = Math.round(candidate == Measure.FINES ? limit * 100 : limit);
+                }
+            }
+            if (measure == null || threshold <= 0) {
+                throw new IllegalArgumentException("Rule " + name + " needs a positive count, points or fines.");
+            }
+            double days = number(properties, key + "days", "365");
+            if (days <= 0) {
+                throw new IllegalArgumentException(key + "days must be positive.");
+            }
+            rules.add(new Rule(name, type, measure, threshold, Math.round(days * 86_400_000L)));
+        }
+        // Rules with the same window share one pass over the timeline.
+        rules.sort(Comparator.comparingLong(Rule::getWindowMillis));
+        return new SuspensionRules(Collections.unmodifiableList(rules), points);
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    int[] getPoints() {
+        return points;
+    }
+
+    private static double number(Properties properties, String key, String fallback) {
+        return parse(key, properties.getProperty(key, fallback));
+    }
+
+    private static double parse(String key, String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("Suspension rules:");
+        for (Rule rule : rules) {
+            text.append("\n  ").append(rule);
+        }
+        return text.toString();
+    }
+}
+
+class SuspensionEvent {
+    private final String licenseNumber;
+    private final String name;
+    private final SuspensionRules.Rule rule;
+    private final long value;
+    private final long timestamp;
+
+    SuspensionEvent(Driver driver, SuspensionRules.Rule rule, long value, long timestamp) {
+        this.licenseNumber = driver.getLicenseNumber();
+        this.name = driver.getName();
+        this.rule = rule;
+        this.value = value;
+        this.timestamp = timestamp;
+    }
+
+    public String getLicenseNumber() {
+        return licenseNumber;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public SuspensionRules.Rule getRule() {
+        return rule;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "Suspension: " + name + " (" + licenseNumber + ") reached " + rule.format(value) + " under rule " + rule
+                + " at " + Instant.ofEpochMilli(timestamp);
+    }
+}
+
+// Receives suspension events on the engine's dispatch thread, never on an ingest thread.
+interface SuspensionSink {
+    void accept(SuspensionEvent event) throws Exception;
+
+    // Called after each batch of accepted events.
+    default void flush() throws Exception {
+    }
+}
+
+// Appends notices to a file through one buffered writer that is flushed once
+// per batch, instead of opening the file for every event.
+class SuspensionFileSink implements SuspensionSink, Closeable {
+    private final BufferedWriter writer;
+
+    public SuspensionFileSink(Path path) throws IOException {
+        writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public void accept(SuspensionEvent event) throws IOException {
+        writer.write(event.toString());
+        writer.newLine();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
+
+// Keeps notices for a console until its menu loop prints them, so they never
+// land in the middle of a prompt. Only the newest limit are kept.
+class HeldNotices implements SuspensionSink {
+    private final ArrayBlockingQueue<SuspensionEvent> held;
+    private final LongAdder discarded = new LongAdder();
+
+    public HeldNotices(int limit) {
+        held = new ArrayBlockingQueue<>(limit);
+    }
+
+    @Override
+    public void accept(SuspensionEvent event) {
+        while (!held.offer(event)) {
+            if (held.poll() != null) {
+                discarded.increment();
+            }
+        }
+    }
+
+    // Takes every held notice, oldest first.
+    public List<SuspensionEvent> drain() {
+        List<SuspensionEvent> notices = new ArrayList<>();
+        held.drainTo(notices);
+        return notices;
+    }
+
+    public long getDiscarded() {
+        return discarded.sum();
+    }
+}
+
+// Checks the suspension rules each time a violation is recorded, while the
+// driver's timeline is locked, so the check sees exactly the violations before
+// it. A rule fires once when the new violation takes its rolling-window measure
+// from below the threshold to at or above it. Events are queued to a single
+// dispatch thread, so a slow sink never holds up ingest. The queue is bounded:
+// once a slow sink lets it fill, further events are dropped and counted rather
+// than growing the heap or blocking a driver's lock.
+class SuspensionEngine {
+    static final HeldNotices CONSOLE = new HeldNotices(1000);
+    static final SuspensionEngine DEFAULT = new SuspensionEngine(CONSOLE);
+
+    private static final int CAPACITY = 1 << 14;
+    private static final int BATCH = 256;
+
+    private final ArrayBlockingQueue<SuspensionEvent> pending;
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder suspensions = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final Thread dispatcher;
+    private volatile SuspensionSink sink;
+    private volatile boolean closed;
+
+    public SuspensionEngine(SuspensionSink sink) {
+        this(sink, CAPACITY);
+    }
+
+    // capacity is how many events may wait for the sink.
+    public SuspensionEngine(SuspensionSink sink, int capacity) {
+        this.sink = sink;
+        this.pending = new ArrayBlockingQueue<>(capacity);
+        dispatcher = new Thread(this::dispatch, "suspension-dispatch");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    public void setSink(SuspensionSink sink) {
+        this.sink = sink;
+    }
+
+    // Called with the driver's timeline locked and the violation already in it.
+    void evaluate(Driver driver, ViolationTimeline timeline, ViolationType type, long cents, long timestamp) {
+        evaluations.increment();
+        SuspensionRules rules = SuspensionRules.current();
+        int[] points = rules.getPoints();
+        long[] counts = null;
+        long[] sums = null;
+        long window = -1;
+        for (SuspensionRules.Rule rule : rules.getRules()) {
+            long added = rule.measure(type, cents, points);
+            if (added == 0) {
+                continue;
+            }
+            if (rule.getWindowMillis() != window) {
+                window = rule.getWindowMillis();
+                counts = new long[ViolationType.count()];
+                sums = new long[counts.length];
+                timeline.tally(timestamp - window, timestamp + 1, counts, sums);
+            }
+            long value = rule.measure(counts, sums, points);
+            if (value >= rule.getThreshold() && value - added < rule.getThreshold()) {
+                suspensions.increment();
+                if (!pending.offer(new SuspensionEvent(driver, rule, value, timestamp))) {
+                    dropped.increment();
+                }
+            }
+        }
+    }
+
+    // Delivers what is already queued, then stops the dispatch thread.
+    public void close() {
+        closed = true;
+        try {
+            dispatcher.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatch() {
+        List<SuspensionEvent> batch = new ArrayList<>(BATCH);
+        try {
+            while (!closed || !pending.isEmpty()) {
+                SuspensionEvent first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                pending.drainTo(batch, BATCH - 1);
+                SuspensionSink target = sink;
+                int accepted = 0;
+                for (SuspensionEvent event : batch) {
+                    try {
+                        target.accept(event);
+                        accepted++;
+                    } catch (Exception e) {
+                        failures.increment();
+                    }
+                }
+                try {
+                    target.flush();
+                } catch (Exception e) {
+                    failures.add(accepted);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    public long getSuspensions() {
+        return suspensions.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    // Events lost because the queue was full.
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Suspension engine: %d evaluations, %d suspensions, %d undelivered, %d dropped",
+                getEvaluations(), getSuspensions(), getFailures(), getDropped());
+    }
+}
+
+// Drivers ranked by one outstanding total over a RankedTreap keyed by driver
+// id, so top-N and rank are O(log n) and ingest workers never wait on each
+// other. A driver who owes nothing drops out, and a replaced driver stays out
+// even if deltas for it were still in flight.
+class OffenderIndex {
+    static final OffenderIndex BY_FINES = new OffenderIndex();
+    static final OffenderIndex BY_COUNT = new OffenderIndex();
+
+    static class Standing {
+        private final int rank;
+        private final Driver driver;
+        private final long score;
+
+        Standing(int rank, Driver driver, long score) {
+            this.rank = rank;
+            this.driver = driver;
+            this.score = score;
+        }
+
+        public int getRank() {
+            return rank;
+        }
+
+        public Driver getDriver() {
+            return driver;
+        }
+
+        public long getScore() {
+            return score;
+        }
+    }
+
+    private final RankedTreap<Driver> ranking = new RankedTreap<>(true, driver -> !driver.isRetired());
+
+    public void add(Driver driver, long delta) {
+        if (delta != 0) {
+            ranking.add(driver.getId(), driver, delta);
+        }
+    }
+
+    // Drops a replaced driver for good; deltas still arriving for it are ignored.
+    public void remove(Driver driver) {
+        driver.retire();
+        ranking.remove(driver.getId());
+    }
+
+    public List<Standing> top(int limit) {
+        List<Standing> standings = new ArrayList<>();
+        ranking.top(limit, (rank, driver, score) -> standings.add(new Standing(rank, driver, score)));
+        return standings;
+    }
+
+    // 1-based rank, or 0 if the driver owes nothing.
+    public int rank(Driver driver) {
+        return ranking.rank(driver.getId());
+    }
+
+    public int size() {
+        return ranking.size();
+    }
+}
+
+// Sorted index of license numbers for partial lookups. The license alphabet
+// [0-9A-Za-z] fits in 6-bit codes, so the first ten characters pack into a long
+// and the last two into a short: 10 bytes per license and direction. A second
+// copy of the reversed licenses lets a pattern be narrowed by a binary search on
+// whichever end has the longer literal run. New licenses collect in a small
+// unsorted buffer that is merged in when it fills up.
+class LicenseIndex {
+    static final LicenseIndex DEFAULT = new LicenseIndex();
+
+    private static final int HEAD_CHARS = 10;
+    private static final int MAX_CHARS = 12;
+    private static final int MERGE_AT = 1 << 16;
+
+    private static class Keys {
+        long[] heads;
+        short[] tails;
+        int size;
+
+        Keys(int capacity) {
+            heads = new long[capacity];
+            tails = new short[capacity];
+        }
+
+        void add(long head, short tail) {
+            if (size == heads.length) {
+                heads = Arrays.copyOf(heads, Math.max(16, size * 2));
+                tails = Arrays.copyOf(tails, heads.length);
+            }
+            heads[size] = head;
+            tails[size++] = tail;
+        }
+    }
+
+    // Fixed characters of a pattern as masked code groups; '?' leaves a group
+    // unmasked and a trailing '*' leaves every group after the literal part free.
+    private static class Matcher {
+        long headMask;
+        long headValue;
+        int tailMask;
+        int tailValue;
+        final int last;
+
+        Matcher(String pattern, boolean open) {
+            int length = pattern.length();
+            last = length - 1;
+            for (int position = 0; position < MAX_CHARS; position++) {
+                int code;
+                if (position < length) {
+                    if (pattern.charAt(position) == '?') {
+                        continue;
+                    }
+                    code = code(pattern.charAt(position));
+                } else if (open) {
+                    break;
+                } else {
+                    code = 0;
+                }
+                if (position < HEAD_CHARS) {
+                    headMask |= 63L << shift(position);
+                    headValue |= (long) code << shift(position);
+                } else {
+                    tailMask |= 63 << shift(position);
+                    tailValue |= code << shift(position);
+                }
+            }
+        }
+
+        boolean matches(long head, short tail) {
+            return ((head ^ headValue) & headMask) == 0 && ((tail ^ tailValue) & tailMask) == 0
+                    && group(head, tail, last) != 0;
+        }
+    }
+
+    private Keys forward = new Keys(0);
+    private Keys reverse = new Keys(0);
+    private Keys pending = new Keys(MERGE_AT);
+
+    public synchronized void add(String licenseNumber) {
+        checkLicense(licenseNumber);
+        pending.add(head(licenseNumber, 0), tail(licenseNumber, 0));
+        if (pending.size >= MERGE_AT) {
+            merge();
+        }
+    }
+
+    // Bulk load: encodes in parallel and merges once.
+    public synchronized void addAll(Collection<String> licenseNumbers) {
+        String[] all = licenseNumbers.toArray(new String[0]);
+        Keys batch = new Keys(pending.size + all.length);
+        System.arraycopy(pending.heads, 0, batch.heads, 0, pending.size);
+        System.arraycopy(pending.tails, 0, batch.tails, 0, pending.size);
+        int offset = pending.size;
+        IntStream.range(0, all.length).parallel().forEach(i -> {
+            checkLicense(all[i]);
+            batch.heads[offset + i] = head(all[i], 0);
+            batch.tails[offset + i] = tail(all[i], 0);
+        });
+        batch.size = offset + all.length;
+        pending = batch;
+        merge();
+    }
+
+    public synchronized int size() {
+        return forward.size + pending.size;
+    }
+
+    public List<String> prefix(String prefix, int limit) {
+        return search(prefix + "*", limit);
+    }
+
+    // '?' matches exactly one character; a trailing '*' matches any remainder.
+    public synchronized List<String> search(String pattern, int limit) {
+        boolean open = pattern.endsWith("*");
+        String literal = open ? pattern.substring(0, pattern.length() - 1) : pattern;
+        if (literal.isEmpty() || literal.length() > MAX_CHARS) {
+            throw new IllegalArgumentException("Pattern must have 1-12 characters besides a trailing *.");
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (c != '?' && code(c) == 0) {
+                throw new IllegalArgumentException("Pattern may only contain letters, digits, ? and a trailing *.");
+            }
+        }
+        TreeSet<String> found = new TreeSet<>();
+        int leading = literalRun(literal, false);
+        int trailing = open ? 0 : literalRun(literal, true);
+        if (trailing > leading) {
+            String reversed = new StringBuilder(literal).reverse().toString();
+            scan(reverse, reversed.substring(0, trailing), new Matcher(reversed, false), true, found, limit);
+        } else {
+            scan(forward, literal.substring(0, leading), new Matcher(literal, open), false, found, limit);
+        }
+        Matcher matcher = new Matcher(literal, open);
+        for (int i = 0; i < pending.size && found.size() < limit; i++) {
+            if (matcher.matches(pending.heads[i], pending.tails[i])) {
+                found.add(decode(pending.heads[i], pending.tails[i], false));
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    // Licenses of the same length that differ from the given one in at most one place.
+    public synchronized List<String> withinOneChar(String licenseNumber, int limit) {
+        checkLicense(licenseNumber);
+        TreeSet<String> found = new TreeSet<>();
+        char[] pattern = licenseNumber.toCharArray();
+        for (int i = 0; i < pattern.length && found.size() < limit; i++) {
+            char original = pattern[i];
+            pattern[i] = '?';
+            for (String match : search(new String(pattern), limit - found.size())) {
+                found.add(match);
+            }
+            pattern[i] = original;
+        }
+        return new ArrayList<>(found);
+    }
+
+    private void scan(Keys keys, String prefix, Matcher matcher, boolean reversed, Set<String> found, int limit) {
+        int from = 0;
+        int to = keys.size;
+        if (!prefix.isEmpty()) {
+            from = lowerBound(keys, head(prefix, 0), tail(prefix, 0));
+            to = upperBound(keys, head(prefix, 63), tail(prefix, 63));
+        }
+        for (int i = from; i < to && found.size() < limit; i++) {
+            if (matcher.matches(keys.heads[i], keys.tails[i])) {
+                found.add(decode(keys.heads[i], keys.tails[i], reversed));
+            }
+        }
+    }
+
+    private void merge() {
+        Keys reversedPending = new Keys(pending.size);
+        for (int i = 0; i < pending.size; i++) {
+            long head = pending.heads[i];
+            short tail = pending.tails[i];
+            int length = 0;
+            while (length < MAX_CHARS && group(head, tail, length) != 0) {
+                length++;
+            }
+            long reversedHead = 0;
+            int reversedTail = 0;
+            for (int position = 0; position < length; position++) {
+                long code = group(head, tail, length - 1 - position);
+                if (position < HEAD_CHARS) {
+                    reversedHead |= code << shift(position);
+                } else {
+                    reversedTail |= (int) code << shift(position);
+                }
+            }
+            reversedPending.add(reversedHead, (short) reversedTail);
+        }
+        Keys sortedPending = pending;
+        CompletableFuture<Keys> reversed = CompletableFuture.supplyAsync(() -> {
+            sort(reversedPending);
+            return merge(reverse, reversedPending);
+        });
+        sort(sortedPending);
+        forward = merge(forward, sortedPending);
+        reverse = reversed.join();
+        pending = new Keys(MERGE_AT);
+    }
+
+    // Merges two sorted key sets, dropping duplicates.
+    private static Keys merge(Keys a, Keys b) {
+        Keys merged = new Keys(a.size + b.size);
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            boolean takeA = j == b.size
+                    || (i < a.size && compare(a.heads[i], a.tails[i], b.heads[j], b.tails[j]) <= 0);
+            long head = takeA ? a.heads[i] : b.heads[j];
+            short tail = takeA ? a.tails[i++] : b.tails[j++];
+            int last = merged.size - 1;
+            if (last < 0 || merged.heads[last] != head || merged.tails[last] != tail) {
+                merged.heads[merged.size] = head;
+                merged.tails[merged.size++] = tail;
+            }
+        }
+        return merged;
+    }
+
+    // LSD radix sort on 12-bit digits: the tail first, then the head from its
+    // low bits up. Six stable passes, so the result ends up back in keys.
+    private static void sort(Keys keys) {
+        int size = keys.size;
+        long[] heads = keys.heads;
+        short[] tails = keys.tails;
+        long[] headsOut = new long[size];
+        short[] tailsOut = new short[size];
+        int[] counts = new int[4097];
+        for (int pass = 0; pass < 6; pass++) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < size; i++) {
+                counts[digit(heads[i], tails[i], pass) + 1]++;
+            }
+            for (int digit = 0; digit < 4096; digit++) {
+                counts[digit + 1] += counts[digit];
+            }
+            for (int i = 0; i < size; i++) {
+                int at = counts[digit(heads[i], tails[i], pass)]++;
+                headsOut[at] = heads[i];
+                tailsOut[at] = tails[i];
+            }
+            long[] swapHeads = heads;
+            heads = headsOut;
+            headsOut = swapHeads;
+            short[] swapTails = tails;
+            tails = tailsOut;
+            tailsOut = swapTails;
+        }
+    }
+
+    private static int digit(long head, short tail, int pass) {
+        return pass == 0 ? tail & 0xFFF : (int) (head >>> (12 * (pass - 1))) & 0xFFF;
+    }
+
+    private static int compare(long headA, short tailA, long headB, short tailB) {
+        return headA != headB ? Long.compare(headA, headB) : Short.compare(tailA, tailB);
+    }
+
+    private static int lowerBound(Keys keys, long head, short tail) {
+        int lo = 0;
+        int hi = keys.size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(keys.heads[mid], keys.tails[mid], head, tail) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static int upperBound(Keys keys, long head, short tail) {
+        int lo = 0;
+        int hi = keys.size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(keys.heads[mid], keys.tails[mid], head, tail) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static int literalRun(String pattern, boolean fromEnd) {
+        int run = 0;
+        while (run < pattern.length() && pattern.charAt(fromEnd ? pattern.length() - 1 - run : run) != '?') {
+            run++;
+        }
+        return run;
+    }
+
+    private static void checkLicense(String licenseNumber) {
+        boolean valid = licenseNumber.length() >= 8 && licenseNumber.length() <= MAX_CHARS;
+        for (int i = 0; valid && i < licenseNumber.length(); i++) {
+            valid = code(licenseNumber.charAt(i)) != 0;
+        }
+        if (!valid) {
+            throw new IllegalArgumentException("License number must be alphanumeric and 8-12 characters long.");
+        }
+    }
+
+    // Codes keep ASCII order (digits, upper, lower) so packed keys sort like strings;
+    // 0 pads short licenses and 63 is only used as an upper bound.
+    private static int code(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0' + 1;
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A' + 11;
+        }
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 37;
+        }
+        return 0;
+    }
+
+    private static char symbol(int code) {
+        return code <= 10 ? (char) ('0' + code - 1) : code <= 36 ? (char) ('A' + code - 11) : (char) ('a' + code - 37);
+    }
+
+    private static int shift(int position) {
+        return position < HEAD_CHARS ? 54 - 6 * position : 6 - 6 * (position - HEAD_CHARS);
+    }
+
+    private static int group(long head, short tail, int position) {
+        return position < HEAD_CHARS ? (int) (head >>> shift(position)) & 63 : (tail >>> shift(position)) & 63;
+    }
+
+    private static long head(String text, int fill) {
+        long head = 0;
+        for (int position = 0; position < HEAD_CHARS; position++) {
+            long code = position < text.length() ? code(text.charAt(position)) : fill;
+            head |= code << shift(position);
+        }
+        return head;
+    }
+
+    private static short tail(String text, int fill) {
+        int tail = 0;
+        for (int position = HEAD_CHARS; position < MAX_CHARS; position++) {
+            int code = position < text.length() ? code(text.charAt(position)) : fill;
+            tail |= code << shift(position);
+        }
+        return (short) tail;
+    }
+
+    private static String decode(long head, short tail, boolean reversed) {
+        StringBuilder text = new StringBuilder(MAX_CHARS);
+        for (int position = 0; position < MAX_CHARS; position++) {
+            int code = group(head, tail, position);
+            if (code == 0) {
+                break;
+            }
+            text.append(symbol(code));
+        }
+        return reversed ? text.reverse().toString() : text.toString();
+    }
+}
+
+// Suppresses repeat camera reports of the same infraction: a (license, type)
+// seen again in the same or the previous time bucket of the event clock is a
+// duplicate. Each bucket has its own Bloom filter in a small ring that rotates
+// as event time moves forward, so memory is fixed no matter the feed rate, no
+// clock is read, and a check is a few word reads with no allocation. It can
+// wrongly call a new event a duplicate; the estimated rate is reported.
+class DuplicateFilter {
+    static final DuplicateFilter CAMERA = new DuplicateFilter(
+            Long.getLong("traffic.dedup.window.seconds", 300) * 1000,
+            Integer.getInteger("traffic.dedup.capacity", 1 << 20), 0.001);
+
+    private static final int GENERATIONS = 4;
+
+    private static class Generation {
+        final AtomicLongArray bits;
+        final LongAdder setBits = new LongAdder();
+
+        Generation(int words) {
+            bits = new AtomicLongArray(words);
+        }
+    }
+
+    // Filters for buckets newest - GENERATIONS + 1 through newest; published whole.
+    private static class Ring {
+        final long newest;
+        final Generation[] generations;
+
+        Ring(long newest, Generation[] generations) {
+            this.newest = newest;
+            this.generations = generations;
+        }
+
+        Generation forBucket(long bucket) {
+            long age = newest - bucket;
+            return age >= 0 && age < GENERATIONS ? generations[(int) Math.floorMod(bucket, (long) GENERATIONS)] : null;
+        }
+    }
+
+    private final long windowMillis;
+    private final int words;
+    private final int bitMask;
+    private final int hashes;
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+    private final LongAdder tooLate = new LongAdder();
+    private volatile Ring ring;
+
+    // capacity is the number of distinct events expected per window; falsePositiveRate
+    // sizes each filter for that load.
+    public DuplicateFilter(long windowMillis, int capacity, double falsePositiveRate) {
+        if (windowMillis <= 0 || capacity <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid duplicate filter settings.");
+        }
+        this.windowMillis = windowMillis;
+        long bits = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        // A power of two so a probe is a mask rather than a division.
+        this.words = Integer.highestOneBit((int) Math.min(1 << 25, Math.max(1, (bits + 63) / 64)) * 2 - 1);
+        this.bitMask = words * 64 - 1;
+        this.hashes = Math.max(1, (int) Math.round(-Math.log(falsePositiveRate) / Math.log(2)));
+        Generation[] generations = new Generation[GENERATIONS];
+        for (int i = 0; i < GENERATIONS; i++) {
+            generations[i] = new Generation(words);
+        }
+        this.ring = new Ring(Long.MIN_VALUE + GENERATIONS, generations);
+    }
+
+    // Records the event and returns true if it was already seen. Events older than
+    // the ring can no longer be checked and always pass.
+    public boolean isDuplicate(String licenseNumber, ViolationType type, long timestamp) {
+        checked.increment();
+        long bucket = Math.floorDiv(timestamp, windowMillis);
+        Ring current = ring;
+        if (bucket > current.newest) {
+            current = advance(bucket);
+        }
+        Generation own = current.forBucket(bucket);
+        if (own == null) {
+            tooLate.increment();
+            return false;
+        }
+        long hash = hash(licenseNumber, type);
+        Generation previous = current.forBucket(bucket - 1);
+        if (test(own, hash) || (previous != null && test(previous, hash))) {
+            suppressed.increment();
+            return true;
+        }
+        add(own, hash);
+        return false;
+    }
+
+    public long getChecked() {
+        return checked.sum();
+    }
+
+    public long getSuppressed() {
+        return suppressed.sum();
+    }
+
+    public long getTooLate() {
+        return tooLate.sum();
+    }
+
+    // Chance that a new event in the newest bucket is wrongly suppressed, from
+    // how full that bucket's filter and the one before it are.
+    public double getFalsePositiveRate() {
+        Ring current = ring;
+        double allMiss = 1;
+        for (long bucket = current.newest - 1; bucket <= current.newest; bucket++) {
+            double fill = (double) current.forBucket(bucket).setBits.sum() / (bitMask + 1L);
+            allMiss *= 1 - Math.pow(fill, hashes);
+        }
+        return 1 - allMiss;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Duplicate filter: %d checked, %d suppressed, %d too late to check,"
+                        + " est. false-positive rate %.4f%%",
+                getChecked(), getSuppressed(), getTooLate(), getFalsePositiveRate() * 100);
+    }
+
+    // Double hashing: probe i is bit h1 + i * h2 (Kirsch-Mitzenmacher).
+    private boolean test(Generation generation, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            int bit = (h1 + i * h2) & bitMask;
+            if ((generation.bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(Generation generation, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            int bit = (h1 + i * h2) & bitMask;
+            long mask = 1L << bit;
+            long word = generation.bits.get(bit >>> 6);
+            while ((word & mask) == 0) {
+                long witness = generation.bits.compareAndExchange(bit >>> 6, word, word | mask);
+                if (witness == word) {
+                    generation.setBits.increment();
+                    break;
+                }
+                word = witness;
+            }
+        }
+    }
+
+    // Moves the ring forward to bucket, giving each newly covered bucket an empty
+    // filter in the slot of the bucket that fell out.
+    private synchronized Ring advance(long bucket) {
+        Ring current = ring;
+        if (bucket <= current.newest) {
+            return current;
+        }
+        Generation[] generations = current.generations.clone();
+        for (long fresh = Math.max(current.newest + 1, bucket - GENERATIONS + 1); fresh <= bucket; fresh++) {
+            generations[(int) Math.floorMod(fresh, (long) GENERATIONS)] = new Generation(words);
+        }
+        ring = new Ring(bucket, generations);
+        return ring;
+    }
+
+    // FNV-1a over the license and type, then a SplitMix64 finalizer.
+    private static long hash(String licenseNumber, ViolationType type) {
+        long hash = 0xCBF29CE484222325L ^ type.ordinal();
+        for (int i = 0; i < licenseNumber.length(); i++) {
+            hash = (hash ^ licenseNumber.charAt(i)) * 0x100000001B3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return hash ^ (hash >>> 31);
+    }
+}
+
+// Streams a camera-feed file through memory-mapped windows, so files larger than
+// the heap are fine. Rows are CSV "license,type,amount[,timestamp]" or NDJSON
+// objects with the same keys. A blank or missing amount means the scheduled
+// fine; a timestamp is epoch millis or an ISO-8601 instant and defaults to the
+// time of import. Repeat reports are dropped by DuplicateFilter.CAMERA. The
+// reader only locates each row's license and hands the raw row to the worker
+// that owns that license, so a driver's rows are applied in file order and
+// repeat-offender tiers come out the same on every run. Bad rows are counted
+// and sampled, never fatal.
+class ViolationIngest {
+    private static final int WINDOW = 64 << 20;
+    private static final int BATCH_ROWS = 4096;
+    private static final int MAX_ERRORS = 20;
+
+    static class Report {
+        private final long rows;
+        private final long applied;
+        private final long duplicates;
+        private final long rejected;
+        private final long bytes;
+        private final long elapsedNanos;
+        private final List<String> errors;
+
+        Report(long rows, long applied, long duplicates, long rejected, long bytes, long elapsedNanos,
+               List<String> errors) {
+            this.rows = rows;
+            this.applied = applied;
+            this.duplicates = duplicates;
+            this.rejected = rejected;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.errors = errors;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getApplied() {
+            return applied;
+        }
+
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Ingested %d rows (%d applied, %d duplicates, %d rejected) from %.1f MB in %.1f ms"
+                    + " (%.0f rows/s)", rows, applied, duplicates, rejected, bytes / 1e6, elapsedNanos / 1e6,
+                    getRowsPerSecond());
+        }
+    }
+
+    // Raw rows bound for one worker, packed into a single byte array.
+    private static class Batch {
+        byte[] data = new byte[BATCH_ROWS * 48];
+        int length;
+        final int[] ends = new int[BATCH_ROWS];
+        final long[] lineNumbers = new long[BATCH_ROWS];
+        int rows;
+
+        void add(byte[] line, int lineLength, long lineNumber) {
+            if (length + lineLength > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + lineLength));
+            }
+            System.arraycopy(line, 0, data, length, lineLength);
+            length += lineLength;
+            ends[rows] = length;
+            lineNumbers[rows++] = lineNumber;
+        }
+
+        boolean isFull() {
+            return rows == BATCH_ROWS;
+        }
     }
 
-    public String getName() {
-        return name;
+    private static final Batch END = new Batch();
+
+    private final DriverRegistry drivers;
+    private final int workers;
+    private final int windowBytes;
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger errorCount = new AtomicInteger();
+    private long importedAt;
+
+    public ViolationIngest(DriverRegistry drivers, int workers) {
+        this(drivers, workers, WINDOW);
     }
 
-    public String getLicenseNumber() {
-        return licenseNumber;
+    // A small window makes tests cross window edges without a huge file.
+    ViolationIngest(DriverRegistry drivers, int workers, int windowBytes) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is required.");
+        }
+        this.drivers = drivers;
+        this.workers = workers;
+        this.windowBytes = windowBytes;
     }
 
-    public abstract void displayDetails();
-}
+    public Report ingest(Path file) throws IOException {
+        applied.set(0);
+        duplicates.set(0);
+        rejected.set(0);
+        errors.clear();
+        errorCount.set(0);
+        importedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        List<BlockingQueue<Batch>> queues = new ArrayList<>(workers);
+        ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "violation-ingest");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<?>> running = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(4);
+            queues.add(queue);
+            running.add(pool.submit(() -> {
+                work(queue);
+                return null;
+            }));
+        }
 
-class Driver extends Person {
-    private double totalFines;
-    private int violationCount;
+        long rows = 0;
+        long size;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            Batch[] batches = new Batch[workers];
+            for (int i = 0; i < workers; i++) {
+                batches[i] = new Batch();
+            }
+            byte[] line = new byte[256];
+            long lineNumber = 0;
+            long position = 0;
+            boolean skipping = false;
+            while (position < size) {
+                long windowSize = Math.min(windowBytes, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+                boolean last = position + windowSize == size;
+                int lineStart = 0;
+                for (int i = 0; i < windowSize; i++) {
+                    boolean endOfData = last && i == windowSize - 1;
+                    if (window.get(i) != '\n' && !endOfData) {
+                        continue;
+                    }
+                    if (skipping) {
+                        // The rest of a row already rejected as too long.
+                        skipping = false;
+                        lineStart = i + 1;
+                        continue;
+                    }
+                    int lineEnd = window.get(i) == '\n' ? i : i + 1;
+                    int length = lineEnd - lineStart;
+                    if (length > line.length) {
+                        line = new byte[Math.max(length, line.length * 2)];
+                    }
+                    window.get(lineStart, line, 0, length);
+                    lineStart = i + 1;
+                    lineNumber++;
+                    if (length > 0 && line[length - 1] == '\r') {
+                        length--;
+                    }
+                    if (length == 0 || line[0] == '#' || (lineNumber == 1 && startsWith(line, length, "license"))) {
+                        continue;
+                    }
+                    rows++;
+                    int owner = Math.floorMod(licenseHash(line, length), workers);
+                    batches[owner].add(line, length, lineNumber);
+                    if (batches[owner].isFull()) {
+                        put(queues.get(owner), batches[owner], running);
+                        batches[owner] = new Batch();
+                    }
+                }
+                // A row cut by the window edge is re-read from the start of the next
+                // window; one that fills a whole window is rejected and skipped.
+                if (lineStart == 0 && !last) {
+                    if (!skipping) {
+                        rows++;
+                        reject(++lineNumber, "Row longer than " + windowBytes + " bytes.");
+                        skipping = true;
+                    }
+                    position += windowSize;
+                } else {
+                    position += lineStart;
+                }
+            }
+            for (int i = 0; i < workers; i++) {
+                if (batches[i].rows > 0) {
+                    put(queues.get(i), batches[i], running);
+                }
+                put(queues.get(i), END, running);
+            }
+        } catch (IOException | RuntimeException e) {
+            pool.shutdownNow();
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+        for (Future<?> worker : running) {
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while ingesting " + file + ".", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Ingest worker failed: " + e.getCause(), e.getCause());
+            }
+        }
+        List<String> sample = new ArrayList<>(errors);
+        Collections.sort(sample, Comparator.comparingLong(ViolationIngest::lineOf));
+        return new Report(rows, applied.get(), duplicates.get(), rejected.get(), size, System.nanoTime() - start,
+                sample);
+    }
 
-    public Driver(String name, String licenseNumber) {
-        super(name, licenseNumber);
-        this.totalFines = 0.0;
-        this.violationCount = 0;
+    private void put(BlockingQueue<Batch> queue, Batch batch, List<Future<?>> running) throws IOException {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Future<?> worker : running) {
+                worker.cancel(true);
+            }
+            throw new IOException("Interrupted while ingesting.", e);
+        }
     }
 
-    public void addViolation(double fineAmount) throws InvalidViolationException {
-        if (fineAmount <= 0) {
-            throw new InvalidViolationException("Fine amount must be positive.");
+    private void work(BlockingQueue<Batch> queue) throws InterruptedException {
+        while (true) {
+            Batch batch = queue.take();
+            if (batch == END) {
+                return;
+            }
+            int start = 0;
+            for (int row = 0; row < batch.rows; row++) {
+                String line = new String(batch.data, start, batch.ends[row] - start, StandardCharsets.UTF_8);
+                start = batch.ends[row];
+                try {
+                    if (apply(line)) {
+                        applied.incrementAndGet();
+                    } else {
+                        duplicates.incrementAndGet();
+                    }
+                } catch (InvalidViolationException | RuntimeException e) {
+                    reject(batch.lineNumbers[row], e.getMessage());
+                }
+            }
         }
-        this.totalFines += fineAmount;
-        this.violationCount++;
     }
 
-    public void resetViolations() {
-        this.totalFines = 0.0;
-        this.violationCount = 0;
+    // Returns false if the row repeats an event already recorded.
+    boolean apply(String line) throws InvalidViolationException {
+        String licenseNumber;
+        String violationType;
+        String amount = "";
+        String timestamp = null;
+        if (line.charAt(0) == '{') {
+            licenseNumber = jsonField(line, "license");
+            violationType = jsonField(line, "type");
+            if (line.contains("\"amount\"")) {
+                amount = jsonField(line, "amount");
+            }
+            if (line.contains("\"timestamp\"")) {
+                timestamp = jsonField(line, "timestamp");
+            }
+        } else {
+            String[] fields = line.split(",", -1);
+            if (fields.length < 2) {
+                throw new IllegalArgumentException("Expected license,type,amount.");
+            }
+            licenseNumber = unquote(fields[0]);
+            violationType = unquote(fields[1]);
+            if (fields.length > 2) {
+                amount = fields[2].trim();
+            }
+            if (fields.length > 3) {
+                timestamp = unquote(fields[3]);
+            }
+        }
+        Driver driver = drivers.get(licenseNumber);
+        if (driver == null) {
+            throw new IllegalArgumentException("Driver not found.");
+        }
+        ViolationType type = ViolationType.fromLabel(violationType);
+        if (type == null) {
+            throw new InvalidViolationException("Invalid violation type.");
+        }
+        long at = timestamp == null || timestamp.isEmpty() ? importedAt : parseTime(timestamp);
+        // Rows without an amount are fined from the schedule.
+        boolean scheduled = amount.isEmpty();
+        long cents = scheduled ? 0 : Driver.fineCents(amount);
+        if (DuplicateFilter.CAMERA.isDuplicate(licenseNumber, type, at)) {
+            return false;
+        }
+        if (scheduled) {
+            driver.recordViolation(type, at);
+        } else {
+            driver.addViolation(type, cents, at);
+        }
+        return true;
     }
 
-    @Override
-    public void displayDetails() {
-        System.out.println("Driver Name: " + getName());
-        System.out.println("License Number: " + getLicenseNumber());
-        System.out.println("Total Fines: $" + totalFines);
-        System.out.println("Violation Count: " + violationCount);
+    static long parseTime(String timestamp) {
+        try {
+            if (Character.isDigit(timestamp.charAt(timestamp.length() - 1)) && timestamp.indexOf('-') < 0) {
+                return Long.parseLong(timestamp);
+            }
+            return Instant.parse(timestamp).toEpochMilli();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid timestamp.");
+        }
+    }
+
+    private void reject(long lineNumber, String message) {
+        rejected.incrementAndGet();
+        if (errorCount.getAndIncrement() < MAX_ERRORS) {
+            errors.add("line " + lineNumber + ": " + message);
+        }
+    }
+
+    private static long lineOf(String error) {
+        return Long.parseLong(error.substring(5, error.indexOf(':')));
+    }
+
+    // Hashes the license bytes so the same license always lands on the same worker.
+    private static int licenseHash(byte[] line, int length) {
+        int from = 0;
+        int to = length;
+        if (line[0] == '{') {
+            int key = indexOf(line, length, "\"license\"");
+            if (key >= 0) {
+                from = key + 9;
+                while (from < length && line[from] != '"') {
+                    from++;
+                }
+                from++;
+                to = from;
+                while (to < length && line[to] != '"') {
+                    to++;
+                }
+            }
+        } else {
+            to = 0;
+            while (to < length && line[to] != ',') {
+                to++;
+            }
+        }
+        int hash = 0;
+        for (int i = from; i < to && i < length; i++) {
+            if (line[i] != '"' && line[i] != ' ') {
+                hash = 31 * hash + line[i];
+            }
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int indexOf(byte[] line, int length, String key) {
+        outer:
+        for (int i = 0; i + key.length() <= length; i++) {
+            for (int j = 0; j < key.length(); j++) {
+                if (line[i + j] != key.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] line, int length, String prefix) {
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase(line[i]) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String unquote(String field) {
+        field = field.trim();
+        if (field.length() >= 2 && field.charAt(0) == '"' && field.charAt(field.length() - 1) == '"') {
+            return field.substring(1, field.length() - 1);
+        }
+        return field;
+    }
+
+    // Reads a top-level string or number value; enough for flat camera events.
+    static String jsonField(String json, String key) {
+        int at = json.indexOf("\"" + key + "\"");
+        if (at < 0) {
+            throw new IllegalArgumentException("Missing \"" + key + "\".");
+        }
+        int colon = json.indexOf(':', at + key.length() + 2);
+        if (colon < 0) {
+            throw new IllegalArgumentException("Malformed \"" + key + "\".");
+        }
+        int from = colon + 1;
+        while (from < json.length() && json.charAt(from) == ' ') {
+            from++;
+        }
+        if (from < json.length() && json.charAt(from) == '"') {
+            int to = json.indexOf('"', from + 1);
+            if (to < 0) {
+                throw new IllegalArgumentException("Malformed \"" + key + "\".");
+            }
+            return json.substring(from + 1, to);
+        }
+        int to = from;
+        while (to < json.length() && json.charAt(to) != ',' && json.charAt(to) != '}') {
+            to++;
+        }
+        return json.substring(from, to).trim();
     }
 }
 
-interface TrafficViolation {
-    void validateViolation() throws InvalidViolationException;
+// Payment references already applied, so a bank payment is applied once no
+// matter how often its file is imported, with running totals for reconciling
+// against the bank. Each DriverRegistry keeps one. In a file-backed registry
+// the reference is logged with the payment and restored when the registry
+// reopens; an in-memory registry's references go with its drivers, so a file
+// imported again after a restart is applied again. Money beyond what a driver
+// owes is counted as unapplied for refund rather than carried as credit.
+class PaymentLedger {
+    private final Set<String> references = ConcurrentHashMap.newKeySet();
+    private final LongAdder payments = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder appliedCents = new LongAdder();
+    private final LongAdder unappliedCents = new LongAdder();
+
+    // Returns the cents applied, or -1 if the reference was already applied. A
+    // payment that fails releases its reference so a corrected row can be applied later.
+    public long pay(Driver driver, String reference, long cents, int violation) {
+        if (reference.isEmpty()) {
+            throw new IllegalArgumentException("Payment reference is required.");
+        }
+        if (!references.add(reference)) {
+            duplicates.increment();
+            return -1;
+        }
+        long applied;
+        try {
+            applied = driver.pay(cents, violation, reference);
+        } catch (RuntimeException e) {
+            references.remove(reference);
+            throw e;
+        }
+        payments.increment();
+        appliedCents.add(applied);
+        unappliedCents.add(cents - applied);
+        return applied;
+    }
+
+    public boolean contains(String reference) {
+        return references.contains(reference);
+    }
+
+    // Marks a reference logged by an earlier run as applied.
+    void restore(String reference) {
+        references.add(reference);
+    }
+
+    public long getAppliedCents() {
+        return appliedCents.sum();
+    }
+
+    public long getUnappliedCents() {
+        return unappliedCents.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Payment ledger: %d payments, $%.2f applied, $%.2f unapplied, %d repeated references",
+                payments.sum(), getAppliedCents() / 100.0, getUnappliedCents() / 100.0, duplicates.sum());
+    }
 }
 
-class SpecificViolation implements TrafficViolation {
-    private String violationType;
-    private double fineAmount;
-    private static final List<String> validViolations = Arrays.asList("Speeding", "Parking", "Signal Violation");
+// Imports a bank payment file through the same mapped reader as violations.
+// Rows are CSV "license,reference,amount[,violation]" or NDJSON objects with
+// those keys. The violation is the number shown with each of the driver's
+// violations; without one, the payment goes to the oldest unpaid violations.
+// A reference seen before counts as a duplicate and changes nothing.
+class PaymentIngest extends ViolationIngest {
+    private final DriverRegistry drivers;
 
-    public SpecificViolation(String violationType, double fineAmount) throws InvalidViolationException {
-        this.violationType = violationType;
-        this.fineAmount = fineAmount;
-        validateViolation();
+    public PaymentIngest(DriverRegistry drivers, int workers) {
+        super(drivers, workers);
+        this.drivers = drivers;
     }
 
     @Override
-    public void validateViolation() throws InvalidViolationException {
-        if (!validViolations.contains(violationType)) {
-            throw new InvalidViolationException("Invalid violation type.");
+    boolean apply(String line) {
+        String licenseNumber;
+        String reference;
+        String amount;
+        String violation = "";
+        if (line.charAt(0) == '{') {
+            licenseNumber = jsonField(line, "license");
+            reference = jsonField(line, "reference");
+            amount = jsonField(line, "amount");
+            if (line.contains("\"violation\"")) {
+                violation = jsonField(line, "violation");
+            }
+        } else {
+            String[] fields = line.split(",", -1);
+            if (fields.length < 3) {
+                throw new IllegalArgumentException("Expected license,reference,amount.");
+            }
+            licenseNumber = unquote(fields[0]);
+            reference = unquote(fields[1]);
+            amount = fields[2].trim();
+            if (fields.length > 3) {
+                violation = unquote(fields[3]);
+            }
         }
-        if (fineAmount <= 0) {
-            throw new InvalidViolationException("Fine amount must be positive.");
+        Driver driver = drivers.get(licenseNumber);
+        if (driver == null) {
+            throw new IllegalArgumentException("Driver not found.");
         }
+        return drivers.getPayments().pay(driver, reference, parseCents(amount),
+                violation.isEmpty() ? -1 : parseViolation(violation)) >= 0;
     }
 
-    public String getViolationDetails() {
-        return "Violation Type: " + violationType + ", Fine Amount: $" + fineAmount;
+    // Exact decimal parsing: an amount with fractions of a cent is rejected, not rounded.
+    static long parseCents(String amount) {
+        try {
+            return new BigDecimal(amount).movePointRight(2).longValueExact();
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid payment amount.");
+        }
     }
 
-    public double getFineAmount() {
-        return fineAmount;
+    static int parseViolation(String violation) {
+        int number;
+        try {
+            number = Integer.parseInt(violation.startsWith("#") ? violation.substring(1) : violation);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid violation number.");
+        }
+        if (number < 1) {
+            throw new IllegalArgumentException("Invalid violation number.");
+        }
+        return number;
+    }
+}
+
+// Writes a statement line for every driver, as CSV "license,name,total_fines,violations"
+// or JSON lines with the same fields. Each output file has one channel and one
+// direct buffer that every line is formatted into byte by byte, so the export
+// creates no objects per driver. With several parts the drivers are split into
+// contiguous ranges written to numbered files in parallel, each with its own header.
+class StatementExport {
+    enum Format { CSV, JSONL }
+
+    private static final int BUFFER = 1 << 20;
+    private static final byte[] CSV_HEADER = "license,name,total_fines,violations\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_LICENSE = "{\"license\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_NAME = "\",\"name\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_FINES = "\",\"totalFines\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_COUNT = ",\"violations\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    static class Report {
+        private final long statements;
+        private final long bytes;
+        private final int files;
+        private final long elapsedNanos;
+
+        Report(long statements, long bytes, int files, long elapsedNanos) {
+            this.statements = statements;
+            this.bytes = bytes;
+            this.files = files;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getStatements() {
+            return statements;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public double getStatementsPerSecond() {
+            return elapsedNanos == 0 ? 0 : statements * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Exported %d statements (%.1f MB) to %d file%s in %.1f ms (%.0f statements/s)",
+                    statements, bytes / 1e6, files, files == 1 ? "" : "s", elapsedNanos / 1e6,
+                    getStatementsPerSecond());
+        }
+    }
+
+    // One output file: its channel, buffer and counts.
+    private static class Part implements DriverRegistry.StatementVisitor {
+        private final Format format;
+        private final FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+        private final byte[] digits = new byte[20];
+        long statements;
+        long bytes;
+
+        Part(Path file, Format format) throws IOException {
+            this.format = format;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            if (format == Format.CSV) {
+                buffer.put(CSV_HEADER);
+            }
+        }
+
+        @Override
+        public void visit(byte[] license, int licenseLength, byte[] name, int nameLength, long totals)
+                throws IOException {
+            // Escaping can grow a name byte to six; numbers take at most 40.
+            ensure(licenseLength + nameLength * 6 + 64);
+            if (format == Format.CSV) {
+                buffer.put(license, 0, licenseLength).put((byte) ',');
+                putCsv(name, nameLength);
+                buffer.put((byte) ',');
+                putCents(FineAccumulator.cents(totals));
+                buffer.put((byte) ',');
+                putLong(FineAccumulator.count(totals));
+            } else {
+                buffer.put(JSON_LICENSE).put(license, 0, licenseLength).put(JSON_NAME);
+                putJson(name, nameLength);
+                buffer.put(JSON_FINES);
+                putCents(FineAccumulator.cents(totals));
+                buffer.put(JSON_COUNT);
+                putLong(FineAccumulator.count(totals));
+                buffer.put((byte) '}');
+            }
+            buffer.put((byte) '\n');
+            statements++;
+        }
+
+        // Quotes the field only when it holds a comma, quote or line break.
+        private void putCsv(byte[] text, int length) {
+            boolean quote = false;
+            for (int i = 0; i < length && !quote; i++) {
+                quote = text[i] == ',' || text[i] == '"' || text[i] == '\n' || text[i] == '\r';
+            }
+            if (!quote) {
+                buffer.put(text, 0, length);
+                return;
+            }
+            buffer.put((byte) '"');
+            for (int i = 0; i < length; i++) {
+                if (text[i] == '"') {
+                    buffer.put((byte) '"');
+                }
+                buffer.put(text[i]);
+            }
+            buffer.put((byte) '"');
+        }
+
+        private void putJson(byte[] text, int length) {
+            for (int i = 0; i < length; i++) {
+                byte b = text[i];
+                if (b == '"' || b == '\\') {
+                    buffer.put((byte) '\\').put(b);
+                } else if (b >= 0 && b < 0x20) {
+                    buffer.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                            .put(HEX[b >> 4]).put(HEX[b & 0xF]);
+                } else {
+                    buffer.put(b);
+                }
+            }
+        }
+
+        // Dollars with two decimals.
+        private void putCents(long cents) {
+            if (cents < 0) {
+                buffer.put((byte) '-');
+                cents = -cents;
+            }
+            putLong(cents / 100);
+            buffer.put((byte) '.').put((byte) ('0' + cents % 100 / 10)).put((byte) ('0' + cents % 10));
+        }
+
+        private void putLong(long value) {
+            int at = digits.length;
+            do {
+                digits[--at] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+            buffer.put(digits, at, digits.length - at);
+        }
+
+        private void ensure(int bytesNeeded) throws IOException {
+            if (buffer.remaining() < bytesNeeded) {
+                flush();
+                if (buffer.capacity() < bytesNeeded) {
+                    buffer = ByteBuffer.allocateDirect(bytesNeeded);
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                bytes += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private final DriverRegistry drivers;
+    private final Format format;
+    private final int parts;
+
+    public StatementExport(DriverRegistry drivers, Format format, int parts) {
+        if (parts < 1) {
+            throw new IllegalArgumentException("At least one part is required.");
+        }
+        this.drivers = drivers;
+        this.format = format;
+        this.parts = parts;
+    }
+
+    // Writes target itself for one part, or target with -1, -2, ... before the extension.
+    public Report export(Path target) throws IOException {
+        long start = System.nanoTime();
+        DriverRegistry.Statements statements = drivers.statements();
+        int slots = statements.slots();
+        Part[] written = new Part[parts];
+        if (parts == 1) {
+            written[0] = write(statements, 0, slots, target);
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(parts, runnable -> {
+                Thread thread = new Thread(runnable, "statement-export");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<Part>> running = new ArrayList<>(parts);
+                for (int i = 0; i < parts; i++) {
+                    int from = (int) ((long) slots * i / parts);
+                    int to = (int) ((long) slots * (i + 1) / parts);
+                    Path file = partFile(target, i + 1);
+                    running.add(pool.submit(() -> write(statements, from, to, file)));
+                }
+                for (int i = 0; i < parts; i++) {
+                    written[i] = running.get(i).get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while exporting statements.", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Statement export failed: " + e.getCause(), e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        long count = 0;
+        long bytes = 0;
+        for (Part part : written) {
+            count += part.statements;
+            bytes += part.bytes;
+        }
+        return new Report(count, bytes, parts, System.nanoTime() - start);
+    }
+
+    private Part write(DriverRegistry.Statements statements, int from, int to, Path file) throws IOException {
+        Part part = new Part(file, format);
+        try {
+            statements.visit(from, to, part);
+        } finally {
+            part.close();
+        }
+        return part;
+    }
+
+    private static Path partFile(Path target, int part) {
+        String name = target.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String numbered = dot < 0 ? name + "-" + part : name.substring(0, dot) + "-" + part + name.substring(dot);
+        return target.resolveSibling(numbered);
     }
 }
 
 public class TrafficFineManagement {
+    private static long startOfDay(LocalDate date) {
+        return date.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
     public static void main(String[] args) {
         Scanner scanner = new Scanner(System.in);
-        Map<String, Driver> drivers = new HashMap<>();
+        DriverRegistry drivers = new DriverRegistry();
 
         System.out.println("Welcome to the Traffic Fine Management System!");
+        String fineFile = System.getProperty("traffic.fines");
+        if (fineFile != null) {
+            try {
+                FineSchedule.install(FineSchedule.load(Paths.get(fineFile)));
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Error: could not load fine schedule, using defaults: " + e.getMessage());
+            }
+        }
+        System.out.println(FineSchedule.current());
+
+        String ruleFile = System.getProperty("traffic.rules");
+        if (ruleFile != null) {
+            try {
+                SuspensionRules.install(SuspensionRules.load(Paths.get(ruleFile)));
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Error: could not load suspension rules, using defaults: " + e.getMessage());
+            }
+        }
+        System.out.println(SuspensionRules.current());
+        String noticeFile = System.getProperty("traffic.suspensions");
+        SuspensionFileSink noticeSink = null;
+        if (noticeFile != null) {
+            try {
+                noticeSink = new SuspensionFileSink(Paths.get(noticeFile));
+                SuspensionEngine.DEFAULT.setSink(noticeSink);
+            } catch (IOException e) {
+                System.out.println("Error: could not open suspension notice file, printing notices: " + e.getMessage());
+            }
+        }
+
+        String registryFile = System.getProperty("traffic.registry");
+        if (registryFile != null) {
+            try {
+                long start = System.nanoTime();
+                drivers = DriverRegistry.open(Paths.get(registryFile), Integer.getInteger("traffic.capacity", 1 << 20));
+                System.out.printf("Driver registry opened: %d drivers, %d logged violation changes in %.1f ms%n",
+                        drivers.size(), drivers.getReplayed(), (System.nanoTime() - start) / 1e6);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Error: could not open driver registry, drivers will not be saved: " + e.getMessage());
+            }
+        }
 
         while (true) {
+            for (SuspensionEvent notice : SuspensionEngine.CONSOLE.drain()) {
+                System.out.println(notice);
+            }
             System.out.println("\nOptions:");
             System.out.println("1. Add Driver");
             System.out.println("2. Add Traffic Violation");
             System.out.println("3. Reset Violations for Driver");
             System.out.println("4. Display Driver Details");
-            System.out.println("5. Exit");
+            System.out.println("5. Import Violations From File");
+            System.out.println("6. View Violations in Date Range");
+            System.out.println("7. View Top Offenders");
+            System.out.println("8. Search Licenses");
+            System.out.println("9. Fine Reports");
+            System.out.println("10. Export Statements");
+            System.out.println("11. Pay Fine");
+            System.out.println("12. Import Payments From File");
+            System.out.println("13. Exit");
             System.out.print("Choose an option: ");
 
             int choice = scanner.nextInt();
@@ -122,31 +3871,30 @@ public class TrafficFineManagement {
                         System.out.print("Enter License Number (8-12 alphanumeric characters): ");
                         String licenseNumber = scanner.nextLine();
 
-                        Driver driver = new Driver(name, licenseNumber);
-                        drivers.put(licenseNumber, driver);
+                        drivers.register(name, licenseNumber);
                         System.out.println("Driver added successfully!");
                         break;
 
                     case 2:
                         System.out.print("Enter Driver's License Number: ");
                         licenseNumber = scanner.nextLine();
-                        if (!drivers.containsKey(licenseNumber)) {
+                        if (!drivers.contains(licenseNumber)) {
                             throw new IllegalArgumentException("Driver not found.");
                         }
                         System.out.print("Enter Violation Type (Speeding, Parking, Signal Violation): ");
-                        String violationType = scanner.nextLine();
-                        System.out.print("Enter Fine Amount: ");
-                        double fineAmount = scanner.nextDouble();
+                        ViolationType type = ViolationType.fromLabel(scanner.nextLine());
+                        if (type == null) {
+                            throw new InvalidViolationException("Invalid violation type.");
+                        }
 
-                        SpecificViolation violation = new SpecificViolation(violationType, fineAmount);
-                        drivers.get(licenseNumber).addViolation(violation.getFineAmount());
-                        System.out.println("Violation added successfully!");
+                        long fineCents = drivers.get(licenseNumber).recordViolation(type, System.currentTimeMillis());
+                        System.out.println("Violation added successfully! Fine: $" + fineCents / 100.0);
                         break;
 
                     case 3:
                         System.out.print("Enter Driver's License Number: ");
                         licenseNumber = scanner.nextLine();
-                        if (!drivers.containsKey(licenseNumber)) {
+                        if (!drivers.contains(licenseNumber)) {
                             throw new IllegalArgumentException("Driver not found.");
                         }
                         drivers.get(licenseNumber).resetViolations();
@@ -157,13 +3905,166 @@ public class TrafficFineManagement {
                     case 4:
                         System.out.print("Enter Driver's License Number: ");
                         licenseNumber = scanner.nextLine();
-                        if (!drivers.containsKey(licenseNumber)) {
+                        if (!drivers.contains(licenseNumber)) {
                             throw new IllegalArgumentException("Driver not found.");
                         }
                         drivers.get(licenseNumber).displayDetails();
                         break;
 
                     case 5:
+                        System.out.print("Enter Path to CSV or NDJSON File: ");
+                        Path file = Paths.get(scanner.nextLine());
+                        ViolationIngest.Report report = new ViolationIngest(drivers,
+                                Runtime.getRuntime().availableProcessors()).ingest(file);
+                        System.out.println(report);
+                        System.out.println(DuplicateFilter.CAMERA);
+                        System.out.println(SuspensionEngine.DEFAULT);
+                        for (String error : report.getErrors()) {
+                            System.out.println("  " + error);
+                        }
+                        if (report.getRejected() > report.getErrors().size()) {
+                            System.out.println("  ... " + (report.getRejected() - report.getErrors().size()) + " more");
+                        }
+                        break;
+
+                    case 6:
+                        System.out.print("Enter Driver's License Number: ");
+                        licenseNumber = scanner.nextLine();
+                        if (!drivers.contains(licenseNumber)) {
+                            throw new IllegalArgumentException("Driver not found.");
+                        }
+                        System.out.print("Enter Start Date (yyyy-mm-dd, blank for earliest): ");
+                        String fromDate = scanner.nextLine().trim();
+                        System.out.print("Enter End Date, inclusive (yyyy-mm-dd, blank for latest): ");
+                        String toDate = scanner.nextLine().trim();
+                        long from = fromDate.isEmpty() ? Long.MIN_VALUE : startOfDay(LocalDate.parse(fromDate));
+                        long to = toDate.isEmpty() ? Long.MAX_VALUE : startOfDay(LocalDate.parse(toDate).plusDays(1));
+
+                        Driver found = drivers.get(licenseNumber);
+                        for (ViolationRecord record : found.violationsBetween(from, to)) {
+                            System.out.println(record);
+                        }
+                        System.out.println(found.countBetween(from, to) + " violations, total $"
+                                + found.finesBetweenCents(from, to) / 100.0);
+                        break;
+
+                    case 7:
+                        System.out.print("Enter Number of Drivers to Show: ");
+                        int limit = scanner.nextInt();
+                        scanner.nextLine(); // Consume newline
+
+                        System.out.println("By Total Fines:");
+                        for (OffenderIndex.Standing standing : OffenderIndex.BY_FINES.top(limit)) {
+                            System.out.println(standing.getRank() + ". " + standing.getDriver().getName() + " ("
+                                    + standing.getDriver().getLicenseNumber() + ") $" + standing.getScore() / 100.0);
+                        }
+                        System.out.println("By Violation Count:");
+                        for (OffenderIndex.Standing standing : OffenderIndex.BY_COUNT.top(limit)) {
+                            System.out.println(standing.getRank() + ". " + standing.getDriver().getName() + " ("
+                                    + standing.getDriver().getLicenseNumber() + ") " + standing.getScore());
+                        }
+                        break;
+
+                    case 8:
+                        System.out.print("Enter Partial License (prefix, ? for any one character, trailing *, "
+                                + "or ~LICENSE for one character off): ");
+                        String pattern = scanner.nextLine().trim();
+                        List<String> matches;
+                        if (pattern.startsWith("~")) {
+                            matches = LicenseIndex.DEFAULT.withinOneChar(pattern.substring(1), 20);
+                        } else if (pattern.contains("?") || pattern.endsWith("*")) {
+                            matches = LicenseIndex.DEFAULT.search(pattern, 20);
+                        } else {
+                            matches = LicenseIndex.DEFAULT.prefix(pattern, 20);
+                        }
+                        for (String match : matches) {
+                            System.out.println(match + " - " + drivers.get(match).getName());
+                        }
+                        System.out.println(matches.size() + (matches.size() == 20 ? "+" : "") + " matching drivers");
+                        break;
+
+                    case 9:
+                        System.out.print("Enter Report Period (day, week, month, or total): ");
+                        String period = scanner.nextLine().trim().toUpperCase(Locale.ROOT);
+                        if (!period.equals("TOTAL") && !period.matches("DAY|WEEK|MONTH")) {
+                            throw new IllegalArgumentException("Invalid report period.");
+                        }
+                        System.out.print("Enter Start Date (yyyy-mm-dd): ");
+                        LocalDate startDate = LocalDate.parse(scanner.nextLine().trim());
+                        System.out.print("Enter End Date, inclusive (yyyy-mm-dd): ");
+                        LocalDate endDate = LocalDate.parse(scanner.nextLine().trim());
+
+                        long start = System.nanoTime();
+                        if (period.equals("TOTAL")) {
+                            System.out.println(ViolationStore.DEFAULT.totalsBetween(startOfDay(startDate),
+                                    startOfDay(endDate.plusDays(1))));
+                        } else {
+                            SortedMap<LocalDate, FineTotals> rollup = FineRollup.DEFAULT.report(
+                                    FineRollup.Period.valueOf(period), startDate, endDate);
+                            for (Map.Entry<LocalDate, FineTotals> row : rollup.entrySet()) {
+                                System.out.println(row.getKey() + "  " + row.getValue());
+                            }
+                        }
+                        System.out.printf("Report computed in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+                        break;
+
+                    case 10:
+                        System.out.print("Enter Output Path (.csv or .jsonl): ");
+                        Path target = Paths.get(scanner.nextLine().trim());
+                        System.out.print("Enter Number of Files to Write in Parallel: ");
+                        int parts = scanner.nextInt();
+                        scanner.nextLine(); // Consume newline
+
+                        String targetName = target.getFileName().toString().toLowerCase(Locale.ROOT);
+                        StatementExport.Format format = targetName.endsWith(".jsonl") || targetName.endsWith(".ndjson")
+                                ? StatementExport.Format.JSONL : StatementExport.Format.CSV;
+                        System.out.println(new StatementExport(drivers, format, parts).export(target));
+                        break;
+
+                    case 11:
+                        System.out.print("Enter Driver's License Number: ");
+                        licenseNumber = scanner.nextLine();
+                        if (!drivers.contains(licenseNumber)) {
+                            throw new IllegalArgumentException("Driver not found.");
+                        }
+                        System.out.print("Enter Payment Reference: ");
+                        String reference = scanner.nextLine().trim();
+                        System.out.print("Enter Amount: ");
+                        long paymentCents = PaymentIngest.parseCents(scanner.nextLine().trim());
+                        System.out.print("Enter Violation Number (blank for oldest unpaid): ");
+                        String violation = scanner.nextLine().trim();
+
+                        long applied = drivers.getPayments().pay(drivers.get(licenseNumber), reference, paymentCents,
+                                violation.isEmpty() ? -1 : PaymentIngest.parseViolation(violation));
+                        if (applied < 0) {
+                            System.out.println("Payment " + reference + " was already applied.");
+                        } else {
+                            System.out.println("Payment applied: $" + applied / 100.0
+                                    + (applied < paymentCents ? ", $" + (paymentCents - applied) / 100.0 + " unapplied" : ""));
+                        }
+                        break;
+
+                    case 12:
+                        System.out.print("Enter Path to CSV or NDJSON Payment File: ");
+                        Path payments = Paths.get(scanner.nextLine());
+                        ViolationIngest.Report paid = new PaymentIngest(drivers,
+                                Runtime.getRuntime().availableProcessors()).ingest(payments);
+                        System.out.println(paid);
+                        System.out.println(drivers.getPayments());
+                        for (String error : paid.getErrors()) {
+                            System.out.println("  " + error);
+                        }
+                        break;
+
+                    case 13:
+                        drivers.close();
+                        SuspensionEngine.DEFAULT.close();
+                        if (noticeSink != null) {
+                            noticeSink.close();
+                        }
+                        for (SuspensionEvent notice : SuspensionEngine.CONSOLE.drain()) {
+                            System.out.println(notice);
+                        }
                         System.out.println("Exiting the system. Goodbye!");
                         scanner.close();
                         return;
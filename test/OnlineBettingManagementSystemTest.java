@@ -0,0 +1,707 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Behaviour checks for the betting system, run without a test framework:
+//   javac -d out OnlineBettingManagementSystem.java RankedTreap.java test/OnlineBettingManagementSystemTest.java
+//   java -ea -cp out OnlineBettingManagementSystemTest
+// Exits with status 1 if any check fails.
+public class OnlineBettingManagementSystemTest {
+    private interface Check {
+        void run() throws Exception;
+    }
+
+    private static int passed;
+    private static int failed;
+
+    public static void main(String[] args) {
+        check("ledger debits never overdraw under contention", OnlineBettingManagementSystemTest::ledgerDebitsNeverOverdraw);
+        check("ledger credits from many threads all land", OnlineBettingManagementSystemTest::ledgerCreditsAllLand);
+        check("ledger grows past one chunk", OnlineBettingManagementSystemTest::ledgerGrowsPastOneChunk);
+        check("ledger rejects negative amounts and unknown accounts", OnlineBettingManagementSystemTest::ledgerRejectsBadInput);
+        check("users opened on their own ledger stay off the shared one", OnlineBettingManagementSystemTest::usersUseInjectedLedger);
+        check("sumByAccount folds repeated accounts", OnlineBettingManagementSystemTest::sumByAccountFoldsRepeats);
+        check("settlement shares the net pool among winners", OnlineBettingManagementSystemTest::settlementSharesNetPool);
+        check("settlement refunds every stake when nobody won", OnlineBettingManagementSystemTest::settlementRefundsWithoutWinners);
+        check("a removed and re-added game takes bets again", OnlineBettingManagementSystemTest::removedGameCanBeReAdded);
+        check("bets racing a game's removal never reach a re-added game", OnlineBettingManagementSystemTest::staleBetsMissReAddedGame);
+        check("passwords are stored salted and hashed", OnlineBettingManagementSystemTest::passwordsAreHashed);
+        check("journal replays every record in order", OnlineBettingManagementSystemTest::journalReplaysInOrder);
+        check("journal stops replay at a torn record", OnlineBettingManagementSystemTest::journalStopsAtTornRecord);
+        check("replay matches bets racing a game's removal", OnlineBettingManagementSystemTest::replayMatchesRacingRemoval);
+        check("a command the journal refuses changes nothing", OnlineBettingManagementSystemTest::refusedJournalWritesChangeNothing);
+        check("HTTP API serves requests and maps errors to statuses", OnlineBettingManagementSystemTest::httpMapsErrors);
+        check("a private context leaves the shared structures alone", OnlineBettingManagementSystemTest::privateContextIsIsolated);
+        check("snapshot round-trips users, books and leaderboards", OnlineBettingManagementSystemTest::snapshotRoundTrips);
+        check("odds boards follow the catalog", OnlineBettingManagementSystemTest::oddsBoardsFollowCatalog);
+        check("admission control limits each user's rate", OnlineBettingManagementSystemTest::admissionLimitsRate);
+        check("admission control sheds on the global queue fill", OnlineBettingManagementSystemTest::admissionShedsGlobally);
+        check("idle buckets are swept and recreated full", OnlineBettingManagementSystemTest::idleBucketsAreSwept);
+        check("rejected bets surface the shared stackless exception", OnlineBettingManagementSystemTest::rejectionsStayStackless);
+        check("leaderboards keep users at zero and below", OnlineBettingManagementSystemTest::leaderboardKeepsNonPositiveScores);
+
+        System.out.printf("%d passed, %d failed%n", passed, failed);
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void check(String name, Check check) {
+        try {
+            check.run();
+            passed++;
+            System.out.println("PASS " + name);
+        } catch (Throwable t) {
+            failed++;
+            System.out.println("FAIL " + name + ": " + t);
+        }
+    }
+
+    private static void expect(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static void expectEquals(long expected, long actual, String what) {
+        if (expected != actual) {
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    private static void expectThrows(Class<? extends Throwable> type, Check check) throws Exception {
+        try {
+            check.run();
+        } catch (Throwable t) {
+            if (type.isInstance(t)) {
+                return;
+            }
+            throw new AssertionError("expected " + type.getSimpleName() + " but got " + t);
+        }
+        throw new AssertionError("expected " + type.getSimpleName());
+    }
+
+    // Runs body on each of threads threads at once and waits for all of them.
+    private static void concurrently(int threads, Check body) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    body.run();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void ledgerDebitsNeverOverdraw() throws Exception {
+        BalanceLedger ledger = new BalanceLedger();
+        int account = ledger.open(10_000);
+        AtomicLong succeeded = new AtomicLong();
+        concurrently(8, () -> {
+            for (int i = 0; i < 5_000; i++) {
+                try {
+                    ledger.debit(account, 3);
+                    succeeded.incrementAndGet();
+                } catch (InsufficientBalanceException e) {
+                    // expected once the balance runs out
+                }
+            }
+        });
+        expectEquals(3_333, succeeded.get(), "successful debits");
+        expectEquals(1, ledger.balance(account), "remaining balance");
+    }
+
+    private static void ledgerCreditsAllLand() throws Exception {
+        BalanceLedger ledger = new BalanceLedger();
+        int account = ledger.open(0);
+        concurrently(8, () -> {
+            for (int i = 0; i < 10_000; i++) {
+                ledger.credit(account, 7);
+            }
+        });
+        expectEquals(8 * 10_000 * 7, ledger.balance(account), "balance");
+    }
+
+    private static void ledgerGrowsPastOneChunk() {
+        BalanceLedger ledger = new BalanceLedger();
+        int last = -1;
+        for (int i = 0; i < 100_000; i++) {
+            last = ledger.open(i);
+        }
+        expectEquals(99_999, last, "last account");
+        expectEquals(4_096, ledger.balance(4_096), "balance in second chunk");
+        expectEquals(99_999, ledger.balance(last), "balance of last account");
+    }
+
+    private static void ledgerRejectsBadInput() throws Exception {
+        BalanceLedger ledger = new BalanceLedger();
+        int account = ledger.open(100);
+        expectThrows(IllegalArgumentException.class, () -> ledger.credit(account, -1));
+        expectThrows(IllegalArgumentException.class, () -> ledger.debit(account, -1));
+        expectThrows(IllegalArgumentException.class, () -> ledger.balance(account + 5_000));
+        expectThrows(InsufficientBalanceException.class, () -> ledger.debit(account, 101));
+        expectEquals(100, ledger.balance(account), "balance after rejected calls");
+    }
+
+    private static void usersUseInjectedLedger() throws Exception {
+        BettingContext context = new BettingContext();
+        BalanceLedger ledger = context.ledger;
+        RegularUser first = new RegularUser("ledger-a", "password1", 12.34, context);
+        RegularUser second = new RegularUser("ledger-b", "password1", 1, context);
+        expectEquals(0, first.getAccount(), "first account");
+        expectEquals(1, second.getAccount(), "second account");
+        expectEquals(1_234, ledger.balance(first.getAccount()), "opening balance");
+        first.deductBalance(0.34);
+        expectEquals(1_200, first.getBalanceCents(), "balance after debit");
+    }
+
+    private static void sumByAccountFoldsRepeats() {
+        int[] accounts = {5, 9, 5, 1, 9, 5};
+        long[] cents = {1, 2, 3, 4, 5, 6};
+        int count = BalanceLedger.sumByAccount(accounts, cents, accounts.length);
+        expectEquals(3, count, "distinct accounts");
+        expect(Arrays.equals(new int[] {5, 9, 1}, Arrays.copyOf(accounts, count)), "accounts " + Arrays.toString(accounts));
+        expect(Arrays.equals(new long[] {10, 7, 4}, Arrays.copyOf(cents, count)), "cents " + Arrays.toString(cents));
+    }
+
+    private static void settlementSharesNetPool() throws Exception {
+        BettingContext context = new BettingContext();
+        BalanceLedger ledger = context.ledger;
+        GameBetIndex index = context.index;
+        int alice = ledger.open(0);
+        int bob = ledger.open(0);
+        int carol = ledger.open(0);
+        GameBook book = index.bookFor("settle-pool");
+        book.record(alice, "home", 100);
+        book.record(alice, "home", 300);
+        book.record(bob, "home", 600);
+        book.record(carol, "away", 1_000);
+
+        SettlementReport report = new GameSettlement(context, 0.10).settle("settle-pool", "home");
+        expectEquals(4, report.getBets(), "bets");
+        expectEquals(3, report.getWinners(), "winning bets");
+        expectEquals(2_000, report.getPoolCents(), "pool");
+        expectEquals(720, ledger.balance(alice), "alice payout");
+        expectEquals(1_080, ledger.balance(bob), "bob payout");
+        expectEquals(0, ledger.balance(carol), "carol payout");
+        expectEquals(1_800, report.getPaidCents(), "paid");
+        expectThrows(IllegalStateException.class, () -> book.record(bob, "home", 1));
+    }
+
+    private static void settlementRefundsWithoutWinners() {
+        BettingContext context = new BettingContext();
+        BalanceLedger ledger = context.ledger;
+        GameBetIndex index = context.index;
+        int alice = ledger.open(0);
+        index.bookFor("settle-refund").record(alice, "home", 250);
+        index.bookFor("settle-refund").record(alice, "away", 50);
+
+        SettlementReport report = new GameSettlement(context, 0.10).settle("settle-refund", "draw");
+        expectEquals(0, report.getWinners(), "winners");
+        expectEquals(300, ledger.balance(alice), "refund");
+    }
+
+    private static void removedGameCanBeReAdded() throws Exception {
+        BettingContext context = new BettingContext();
+        AdminUser admin = new AdminUser("readd-admin", "password1", 0, context);
+        RegularUser user = new RegularUser("readd-user", "password1", 100, context);
+        admin.putGame(new Game("readd-game", "Re-added", Arrays.asList("home", "away")));
+        user.recordBet(new Bet("readd-game", "home", 10));
+        new GameSettlement(context, 0).settle("readd-game", "home");
+        admin.deleteGame("readd-game");
+        expect(context.index.book("readd-game") == null, "book dropped with the game");
+
+        admin.putGame(new Game("readd-game", "Re-added", Arrays.asList("home", "away")));
+        user.recordBet(new Bet("readd-game", "away", 5));
+        GameExposure exposure = context.index.exposure("readd-game");
+        expectEquals(500, exposure.getStakeCents(), "stake on the new book");
+        expect(!exposure.isSettled(), "new book is open");
+    }
+
+    private static void staleBetsMissReAddedGame() throws Exception {
+        BettingContext context = new BettingContext();
+        AdminUser admin = new AdminUser("stale-admin", "password1", 0, context);
+        RegularUser user = new RegularUser("stale-user", "password1", 100, context);
+        admin.putGame(new Game("stale-game", "Stale", Arrays.asList("home", "away")));
+        Bet stale = new Bet("stale-game", "home", 10, 0, admin.getCatalog().getVersion());
+        admin.deleteGame("stale-game");
+        expectThrows(IllegalStateException.class, () -> user.recordBet(stale));
+        admin.putGame(new Game("stale-game", "Stale", Arrays.asList("home", "away")));
+        expectThrows(IllegalStateException.class, () -> user.recordBet(stale));
+        expectEquals(0, context.index.exposure("stale-game").getStakeCents(), "stake after stale bets");
+        expectEquals(10_000, user.getBalanceCents(), "stale bets refunded");
+
+        // Bettors stamp each bet with the catalog they checked while the game is
+        // removed and re-added underneath them.
+        RegularUser[] bettors = new RegularUser[4];
+        for (int i = 0; i < bettors.length; i++) {
+            bettors[i] = new RegularUser("racer-" + i, "password1", 1_000_000, context);
+        }
+        List<Bet> accepted = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong next = new AtomicLong();
+        concurrently(bettors.length + 1, () -> {
+            int me = (int) next.getAndIncrement();
+            for (int i = 0; i < 300; i++) {
+                if (me == bettors.length) {
+                    admin.deleteGame("stale-game");
+                    admin.putGame(new Game("stale-game", "Stale", Arrays.asList("home", "away")));
+                    continue;
+                }
+                CatalogSnapshot catalog = admin.getCatalog();
+                if (!catalog.contains("stale-game")) {
+                    continue;
+                }
+                Bet bet = new Bet("stale-game", "home", 1, 0, catalog.getVersion());
+                try {
+                    bettors[me].recordBet(bet);
+                    accepted.add(bet);
+                } catch (IllegalStateException e) {
+                    // the game was removed after the check
+                }
+            }
+        });
+        long addedVersion = admin.getCatalog().getAddedVersion("stale-game");
+        long current = 0;
+        for (Bet bet : accepted) {
+            current += bet.getCatalogVersion() >= addedVersion ? 100 : 0;
+        }
+        expectEquals(current, context.index.exposure("stale-game").getStakeCents(), "stake on the last game");
+        long spent = 0;
+        for (RegularUser bettor : bettors) {
+            spent += 100_000_000 - bettor.getBalanceCents();
+        }
+        expectEquals(accepted.size() * 100L, spent, "only accepted bets are charged");
+    }
+
+    // Collects replayed journal records as readable strings.
+    private static class RecordingHandler implements BettingJournal.Handler {
+        final List<String> records = new ArrayList<>();
+
+        @Override
+        public void register(String username, String passwordHash, long balanceCents) {
+            records.add("register " + username + " " + balanceCents);
+            RegularUser user = RegularUser.restore(username, passwordHash, balanceCents, new BettingContext());
+            expect(user.login(username, "password1"), "replayed hash accepts the password");
+        }
+
+        @Override
+        public void deposit(String username, long cents) {
+            records.add("deposit " + username + " " + cents);
+        }
+
+        @Override
+        public void placeBet(String username, Bet bet) {
+            records.add("bet " + username + " " + bet.getGameId() + " " + bet.getOutcome() + " "
+                    + BalanceLedger.toCents(bet.getAmount()) + " " + bet.getCatalogVersion());
+        }
+
+        @Override
+        public void addGame(String gameId, String gameName, List<String> outcomes) {
+            records.add("add " + gameId + " " + gameName + " " + outcomes);
+        }
+
+        @Override
+        public void removeGame(String gameId) {
+            records.add("remove " + gameId);
+        }
+
+        @Override
+        public void settleGame(String gameId, String winningOutcome) {
+            records.add("settle " + gameId + " " + winningOutcome);
+        }
+    }
+
+    private static Path tempFile(String prefix) throws IOException {
+        Path path = Files.createTempFile(prefix, ".tmp");
+        path.toFile().deleteOnExit();
+        return path;
+    }
+
+    private static long writeSampleJournal(Path path) throws IOException {
+        RecordingHandler ignored = new RecordingHandler();
+        try (BettingJournal journal = BettingJournal.open(path, ignored)) {
+            journal.logAddGame(new Game("journal-game", "Final", Arrays.asList("home", "away")));
+            journal.logRegister("journal-user", User.hashPassword("password1"), 5_000);
+            journal.logDeposit("journal-user", 250);
+            long position = journal.logBet("journal-user", new Bet("journal-game", "home", 12.5, 1_000, 1));
+            journal.sync(position);
+            journal.logSettleGame("journal-game", "home");
+            position = journal.logRemoveGame("journal-game");
+            journal.sync(position);
+            expect(journal.appendStats().startsWith("Journal appended 6 records"), journal.appendStats());
+            return position;
+        }
+    }
+
+    private static void replayMatchesRacingRemoval() throws Exception {
+        Path path = tempFile("journal");
+        BettingContext context = new BettingContext();
+        AdminUser admin = new AdminUser("race-admin", "password1", 0, context);
+        BettingEngine engine = new BettingEngine(4, 1 << 14, admin, null);
+        RegularUser[] users = new RegularUser[64];
+        try (BettingJournal journal = BettingJournal.open(path, new RecordingHandler())) {
+            engine.start(journal);
+            engine.addGame("race-game", "Race", Arrays.asList("home", "away"));
+            for (int i = 0; i < users.length; i++) {
+                users[i] = engine.register("race-user-" + i, "password1", 1_000).join();
+            }
+            List<CompletableFuture<Bet>> bets = new ArrayList<>();
+            for (int i = 0; i < 20_000; i++) {
+                bets.add(engine.placeBet(users[i % users.length].getUsername(), "race-game", "home", 0.01));
+                if (i == 10_000) {
+                    engine.removeGame("race-game");
+                }
+            }
+            for (CompletableFuture<Bet> bet : bets) {
+                bet.handle((placed, error) -> null).join();
+            }
+        } finally {
+            engine.close();
+        }
+
+        BettingContext replayedContext = new BettingContext();
+        AdminUser replayedAdmin = new AdminUser("race-admin", "password1", 0, replayedContext);
+        BettingEngine replayed = new BettingEngine(4, 1 << 14, replayedAdmin, null);
+        try (BettingJournal journal = BettingJournal.open(path,
+                new JournalReplayer(replayed, replayedAdmin, new GameSettlement(replayedContext, 0)))) {
+            expect(journal.replayStats().contains("(0 skipped)"), journal.replayStats());
+        }
+        for (RegularUser live : users) {
+            RegularUser again = replayed.findUser(live.getUsername());
+            expectEquals(live.getBalanceCents(), again.getBalanceCents(), live.getUsername() + " balance after replay");
+            expectEquals(live.getBetCount(), again.getBetCount(), live.getUsername() + " bets after replay");
+        }
+    }
+
+    private static void refusedJournalWritesChangeNothing() throws Exception {
+        Path path = tempFile("journal");
+        BettingContext context = new BettingContext();
+        AdminUser admin = new AdminUser("refused-admin", "password1", 0, context);
+        BettingEngine engine = new BettingEngine(2, 1 << 10, admin, null);
+        String tooLong = "x".repeat(70_000);
+        List<String> manyOutcomes = new ArrayList<>();
+        for (int i = 0; i < 70_000; i++) {
+            manyOutcomes.add("outcome-" + i);
+        }
+        List<String> wideOutcomes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            wideOutcomes.add(i + "y".repeat(60_000)); // far past the old fixed record buffer
+        }
+        try (BettingJournal journal = BettingJournal.open(path, new RecordingHandler())) {
+            engine.start(journal);
+            expectThrows(IllegalArgumentException.class,
+                    () -> BettingEngine.await(engine.register(tooLong, "password1", 10)));
+            expect(!engine.hasUser(tooLong).join(), "refused user is not registered");
+
+            RegularUser user = engine.register("refused-user", "password1", 10).join();
+            engine.addGame("refused-open", "Any outcome", Collections.emptyList());
+            expectThrows(IllegalArgumentException.class,
+                    () -> BettingEngine.await(engine.placeBet("refused-user", "refused-open", tooLong, 5)));
+            expectEquals(1_000, user.getBalanceCents(), "balance after the refused bet");
+            expectEquals(0, user.getBetCount(), "history after the refused bet");
+            expectEquals(0, context.index.exposure("refused-open").getStakeCents(), "stake after the refused bet");
+
+            expectThrows(IllegalArgumentException.class, () -> engine.addGame("refused-many", "Many", manyOutcomes));
+            expect(!engine.getCatalog().contains("refused-many"), "refused game is not published");
+            engine.addGame("refused-wide", "Wide", wideOutcomes);
+        } finally {
+            engine.close();
+        }
+
+        RecordingHandler handler = new RecordingHandler();
+        BettingJournal.open(path, handler).close();
+        expectEquals(3, handler.records.size(), "journaled records");
+        expect(handler.records.get(0).equals("register refused-user 1000"), "records " + handler.records.get(0));
+        expect(handler.records.get(2).equals("add refused-wide Wide " + wideOutcomes), "wide game replays whole");
+    }
+
+    private static void passwordsAreHashed() throws Exception {
+        RegularUser user = new RegularUser("hash-user", "password1", 0, new BettingContext());
+        expect(!user.getPasswordHash().contains("password1"), "hash hides the password");
+        expect(user.login("hash-user", "password1"), "correct password");
+        expect(!user.login("hash-user", "password2"), "wrong password");
+        expect(!user.login("other-user", "password1"), "wrong user");
+        expect(!User.hashPassword("password1").equals(User.hashPassword("password1")), "salted");
+    }
+
+    private static void journalReplaysInOrder() throws Exception {
+        Path path = tempFile("journal");
+        writeSampleJournal(path);
+        byte[] bytes = Files.readAllBytes(path);
+        expect(!new String(bytes, StandardCharsets.ISO_8859_1).contains("password1"), "no password in the journal");
+
+        RecordingHandler handler = new RecordingHandler();
+        try (BettingJournal journal = BettingJournal.open(path, handler)) {
+            expect(journal.replayStats().startsWith("Journal replayed 6 records (0 skipped)"), journal.replayStats());
+        }
+        expect(handler.records.equals(Arrays.asList(
+                "add journal-game Final [home, away]",
+                "register journal-user 5000",
+                "deposit journal-user 250",
+                "bet journal-user journal-game home 1250 1",
+                "settle journal-game home",
+                "remove journal-game")), "records " + handler.records);
+    }
+
+    private static void journalStopsAtTornRecord() throws Exception {
+        Path path = tempFile("journal");
+        long end = writeSampleJournal(path);
+        // Flip a byte inside the last record so its CRC no longer matches.
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer oneByte = ByteBuffer.allocate(1);
+            channel.read(oneByte, end - 1);
+            oneByte.put(0, (byte) (oneByte.get(0) ^ 0x5A)).rewind();
+            channel.write(oneByte, end - 1);
+        }
+        RecordingHandler handler = new RecordingHandler();
+        try (BettingJournal journal = BettingJournal.open(path, handler)) {
+            expectEquals(5, handler.records.size(), "records before the torn one");
+            long position = journal.logRemoveGame("journal-game");
+            journal.sync(position);
+        }
+        RecordingHandler reopened = new RecordingHandler();
+        BettingJournal.open(path, reopened).close();
+        expectEquals(6, reopened.records.size(), "records after appending past the torn one");
+    }
+
+    // Returns "status body" for one request against the local server.
+    private static String http(int port, String method, String pathAndQuery) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + pathAndQuery).openConnection();
+        connection.setRequestMethod(method);
+        if (method.equals("POST")) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(new byte[0]);
+            }
+        }
+        int status = connection.getResponseCode();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            return status + " " + new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void httpMapsErrors() throws Exception {
+        BettingEngine engine = new BettingEngine(2, 1 << 10, new AdminUser("http-admin", "password1", 0, new BettingContext()), null);
+        engine.start(null);
+        BettingHttpServer server = new BettingHttpServer(engine, 0);
+        server.start();
+        try {
+            int port = server.getPort();
+            expect(http(port, "POST", "/users?username=http-user&password=password1&balance=20")
+                    .equals("200 {\"username\":\"http-user\",\"balance\":20.0}"), "register");
+            expect(http(port, "GET", "/users").startsWith("405 "), "wrong method");
+            expect(http(port, "POST", "/deposits?username=http-user").startsWith("400 {\"error\":\"Missing parameter: amount\"}"),
+                    "missing parameter");
+            expect(http(port, "POST", "/bets?username=http-user&gameId=no-such-game&outcome=x&amount=1").startsWith("400 "),
+                    "unknown game");
+            expect(http(port, "POST", "/games?gameId=http-game&gameName=Derby&outcomes=home,away").startsWith("200 "),
+                    "add game");
+            expect(http(port, "GET", "/games").equals("200 {\"version\":1,\"games\":[{\"gameId\":\"http-game\","
+                    + "\"gameName\":\"Derby\",\"addedVersion\":1,\"outcomes\":[\"home\",\"away\"]}]}"),
+                    "list games");
+        } finally {
+            server.stop();
+            engine.close();
+        }
+    }
+
+    private static void privateContextIsIsolated() throws Exception {
+        int sharedGameIds = StringDictionary.GAME_IDS.size();
+        int sharedOutcomes = StringDictionary.OUTCOMES.size();
+        int sharedStakers = Leaderboard.BY_STAKE.size();
+        BettingContext context = new BettingContext();
+        AdminUser admin = new AdminUser("private-admin", "password1", 0, context);
+        RegularUser user = new RegularUser("private-user", "password1", 50, context);
+        admin.putGame(new Game("private-game", "Private", Arrays.asList("home", "away")));
+        user.recordBet(new Bet("private-game", "home", 20));
+
+        expectEquals(2_000, context.index.exposure("private-game").getStakeCents(), "private book");
+        expectEquals(2_000, context.odds.quote("private-game").getPoolCents(0), "private odds pool");
+        expectEquals(1, context.byStake.rank("private-user"), "private leaderboard rank");
+        expect(GameBetIndex.DEFAULT.book("private-game") == null, "no shared book");
+        expectThrows(IllegalArgumentException.class, () -> OddsCache.DEFAULT.quote("private-game"));
+        expectEquals(0, Leaderboard.BY_STAKE.rank("private-user"), "shared leaderboard rank");
+        expectEquals(sharedStakers, Leaderboard.BY_STAKE.size(), "shared leaderboard size");
+        expectEquals(sharedGameIds, StringDictionary.GAME_IDS.size(), "shared game id dictionary");
+        expectEquals(sharedOutcomes, StringDictionary.OUTCOMES.size(), "shared outcome dictionary");
+    }
+
+    private static void snapshotRoundTrips() throws Exception {
+        Path path = tempFile("snapshot");
+        BettingContext context = new BettingContext();
+        AdminUser admin = new AdminUser("snap-admin", "password1", 0, context);
+        BettingEngine engine = new BettingEngine(2, 1 << 10, admin, new GameSettlement(context, 0.10));
+        engine.start(null);
+        try {
+            engine.addGame("snap-open", "Open", Arrays.asList("home", "away"));
+            engine.addGame("snap-settled", "Settled", Arrays.asList("home", "away"));
+            engine.register("snap-alice", "password1", 100).join();
+            engine.register("snap-bob", "password1", -5).join();
+            engine.deposit("snap-bob", 50).join();
+            engine.placeBet("snap-alice", "snap-open", "home", 10).join();
+            engine.placeBet("snap-alice", "snap-settled", "home", 20).join();
+            engine.placeBet("snap-bob", "snap-settled", "away", 30).join();
+            engine.settleGame("snap-settled", "home");
+            engine.removeGame("snap-open");
+            engine.addGame("snap-open", "Open again", Arrays.asList("home", "away"));
+            engine.placeBet("snap-bob", "snap-open", "away", 5).join();
+            engine.snapshot(path);
+        } finally {
+            engine.close();
+        }
+        expect(!new String(Files.readAllBytes(path), StandardCharsets.ISO_8859_1).contains("password1"),
+                "no password in the snapshot");
+
+        BettingContext restoredContext = new BettingContext();
+        AdminUser restoredAdmin = new AdminUser("snap-admin", "password1", 0, restoredContext);
+        BettingEngine restored = new BettingEngine(2, 1 << 10, restoredAdmin, new GameSettlement(restoredContext, 0.10));
+        BettingSnapshot.restore(path, restored, restoredAdmin);
+        RegularUser alice = restored.findUser("snap-alice");
+        RegularUser bob = restored.findUser("snap-bob");
+        expectEquals(10_000 - 3_000 + 4_500, alice.getBalanceCents(), "alice balance");
+        expectEquals(-500 + 5_000 - 3_000 - 500, bob.getBalanceCents(), "bob balance");
+        expect(bob.login("snap-bob", "password1"), "login after restore");
+        expectEquals(2, alice.getBetCount(), "alice history");
+
+        expect(restoredAdmin.getCatalog().getGame("snap-open").getGameName().equals("Open again"), "catalog");
+        GameExposure open = restoredContext.index.exposure("snap-open");
+        expectEquals(500, open.getStakeCents(), "re-added game keeps only its own bets");
+        expect(!open.isSettled(), "re-added game is open");
+        GameExposure settled = restoredContext.index.exposure("snap-settled");
+        expectEquals(5_000, settled.getStakeCents(), "settled game stake");
+        expect(settled.isSettled(), "settled game stays settled");
+        expectEquals(3_000, restoredContext.byStake.score(alice.getAccount()), "alice stake score");
+        expectEquals(4_500 - 3_000, restoredContext.byNetWinnings.score(alice.getAccount()), "alice net score");
+        expectEquals(1, restoredContext.byNetWinnings.rank("snap-alice"), "alice net rank");
+    }
+
+    private static void oddsBoardsFollowCatalog() throws Exception {
+        BettingContext context = new BettingContext();
+        AdminUser admin = new AdminUser("odds-admin", "password1", 0, context);
+        RegularUser user = new RegularUser("odds-user", "password1", 100, context);
+        admin.putGame(new Game("odds-game", "Odds", Arrays.asList("home", "away")));
+        user.recordBet(new Bet("odds-game", "home", 10));
+        expectThrows(IllegalArgumentException.class,
+                () -> admin.putGame(new Game("odds-game", "Duplicate", Arrays.asList("red", "blue"))));
+        OddsQuote quote = context.odds.quote("odds-game");
+        expect(quote.getOutcomes().equals(Arrays.asList("home", "away")), "duplicate add keeps the board");
+        expectEquals(1_000, quote.getPoolCents(0), "home pool");
+
+        admin.deleteGame("odds-game");
+        expectThrows(IllegalArgumentException.class, () -> context.odds.quote("odds-game"));
+        admin.putGame(new Game("odds-game", "Odds again", Arrays.asList("red", "blue")));
+        user.recordBet(new Bet("odds-game", "blue", 4));
+        quote = context.odds.quote("odds-game");
+        expect(quote.getOutcomes().equals(Arrays.asList("red", "blue")), "re-added game gets a new board");
+        expectEquals(400, quote.getPoolCents(1), "blue pool");
+        expectEquals(400, quote.getTotalCents(), "total pool");
+        expectEquals(380, Math.round(quote.getOdds(1) * 400), "odds after the 5% house take");
+    }
+
+    private static void admissionLimitsRate() {
+        AdmissionControl admission = new AdmissionControl(1, 3, 0.9);
+        try {
+            for (int i = 0; i < 3; i++) {
+                expect(admission.admit("rate-user", 0, 100) == null, "bet " + i + " within the burst");
+            }
+            expect(admission.admit("rate-user", 0, 100) == BetRejectedException.RATE_LIMITED, "bet past the burst");
+            expect(admission.admit("rate-other", 0, 100) == null, "other users keep their own bucket");
+            expectEquals(1, admission.getRateLimited(), "rate limited count");
+        } finally {
+            admission.close();
+        }
+    }
+
+    private static void admissionShedsGlobally() {
+        AdmissionControl admission = new AdmissionControl(1_000, 10, 0.5);
+        try {
+            expect(admission.admit("shed-user", 50, 100) == null, "at the threshold");
+            expect(admission.admit("shed-user", 51, 100) == BetRejectedException.OVERLOADED, "over the threshold");
+            expectEquals(1, admission.getShed(), "shed count");
+        } finally {
+            admission.close();
+        }
+    }
+
+    private static void idleBucketsAreSwept() throws Exception {
+        AdmissionControl admission = new AdmissionControl(1_000, 1, 0.9);
+        try {
+            expect(admission.admit("idle-user", 0, 100) == null, "first bet");
+            expect(admission.admit("idle-user", 0, 100) == BetRejectedException.RATE_LIMITED, "burst of one");
+            expectEquals(1, admission.activeBuckets(), "active buckets");
+            Thread.sleep(20);
+            admission.evictIdle();
+            expectEquals(0, admission.activeBuckets(), "buckets after the sweep");
+            expect(admission.admit("idle-user", 0, 100) == null, "fresh bucket is full");
+            expect(admission.admit("idle-user", 0, 100) == BetRejectedException.RATE_LIMITED, "and holds one bet");
+        } finally {
+            admission.close();
+        }
+    }
+
+    private static void rejectionsStayStackless() throws Exception {
+        BettingContext context = new BettingContext();
+        AdminUser admin = new AdminUser("reject-admin", "password1", 0, context);
+        BettingEngine engine = new BettingEngine(1, 1 << 10, admin, null, new AdmissionControl(1, 1, 0.9));
+        engine.start(null);
+        try {
+            engine.addGame("reject-game", "Reject", Arrays.asList("home", "away"));
+            BettingEngine.await(engine.register("reject-user", "password1", 10));
+            BettingEngine.await(engine.placeBet("reject-user", "reject-game", "home", 1));
+            try {
+                BettingEngine.await(engine.placeBet("reject-user", "reject-game", "home", 1));
+                throw new AssertionError("second bet should be rate limited");
+            } catch (BetRejectedException e) {
+                expect(e == BetRejectedException.RATE_LIMITED, "the shared instance");
+                expectEquals(0, e.getStackTrace().length, "stack frames");
+            }
+            expectThrows(IllegalArgumentException.class,
+                    () -> BettingEngine.await(engine.deposit("no-such-user", 1)));
+        } finally {
+            engine.close();
+        }
+    }
+
+    private static void leaderboardKeepsNonPositiveScores() {
+        Leaderboard board = new Leaderboard("Net winnings");
+        board.add(1, "winner", 500);
+        board.add(2, "loser", -300);
+        board.add(3, "even", 200);
+        board.add(3, "even", -200);
+        board.addAll(new int[] {4}, new long[] {900}, 1);
+        expectEquals(3, board.size(), "ranked users");
+        expectEquals(2, board.rank("even"), "even rank");
+        expectEquals(3, board.rank("loser"), "loser rank");
+        expectEquals(0, board.rank("stranger"), "payout without a bet is not ranked");
+        List<Leaderboard.Standing> top = board.top(2);
+        expectEquals(2, top.size(), "top size");
+        expect(top.get(0).getUsername().equals("winner"), "leader");
+    }
+}
@@ -0,0 +1,762 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Behaviour checks for the traffic fine system, run without a test framework:
+//   javac -d out TrafficFineManagement.java RankedTreap.java test/TrafficFineManagementTest.java
+//   java -ea -cp out TrafficFineManagementTest
+// Exits with status 1 if any check fails.
+public class TrafficFineManagementTest {
+    private interface Check {
+        void run() throws Exception;
+    }
+
+    private static int passed;
+    private static int failed;
+
+    public static void main(String[] args) {
+        check("repeat camera reports are suppressed within the window", TrafficFineManagementTest::duplicatesSuppressedInWindow);
+        check("rollups total each period within the range", TrafficFineManagementTest::rollupsTotalPeriods);
+        check("statement export escapes names", TrafficFineManagementTest::exportEscapesNames);
+        check("statement export splits slots into contiguous parts", TrafficFineManagementTest::exportSplitsContiguousParts);
+        check("statement export reads a file-backed registry", TrafficFineManagementTest::exportReadsFileBackedRegistry);
+        check("offenders who owe nothing leave the ranking", TrafficFineManagementTest::settledOffendersLeaveRanking);
+        check("a removed offender stays out of the ranking", TrafficFineManagementTest::removedOffenderStaysOut);
+        check("a driver replaced in the registry is retired from the rankings", TrafficFineManagementTest::replacedDriverIsRetired);
+        check("packed totals keep the sign of a transient count", TrafficFineManagementTest::packedTotalsKeepSign);
+        check("packed totals refuse what either half cannot hold", TrafficFineManagementTest::packedTotalsStayInRange);
+        check("totals match the store under racing violations and waivers", TrafficFineManagementTest::totalsSurviveRacingWaivers);
+        check("a reopened registry keeps its violation rows", TrafficFineManagementTest::registryKeepsViolationRows);
+        check("concurrent log appends are forced and replayed in order", TrafficFineManagementTest::logAppendsConcurrently);
+        check("replay drops entries past one a crash left unwritten", TrafficFineManagementTest::logDropsEntriesPastGap);
+        check("totals without rows block payments until waived", TrafficFineManagementTest::unbackedTotalsBlockPayments);
+        check("names are checked and ids unique in both registry modes", TrafficFineManagementTest::registriesShareRules);
+        check("ingest reads rows across window edges", TrafficFineManagementTest::ingestCrossesWindowEdges);
+        check("ingested fines parse exactly", TrafficFineManagementTest::ingestedFinesParseExactly);
+        check("a suspension rule fires once as its window measure crosses the threshold", TrafficFineManagementTest::suspensionFiresOnCrossing);
+        check("suspension events beyond the queue are dropped and counted", TrafficFineManagementTest::suspensionQueueIsBounded);
+        check("the file sink appends every notice", TrafficFineManagementTest::fileSinkAppendsNotices);
+        check("violations are numbered per driver and paid by number", TrafficFineManagementTest::violationsNumberedPerDriver);
+        check("a payment reference applies once, across restarts too", TrafficFineManagementTest::paymentsAreIdempotent);
+        check("each registry keeps its own payment references", TrafficFineManagementTest::registriesKeepOwnReferences);
+        check("payment amounts parse exactly", TrafficFineManagementTest::paymentAmountsParseExactly);
+
+        System.out.printf("%d passed, %d failed%n", passed, failed);
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void check(String name, Check check) {
+        try {
+            check.run();
+            passed++;
+            System.out.println("PASS " + name);
+        } catch (Throwable t) {
+            failed++;
+            System.out.println("FAIL " + name + ": " + t);
+        }
+    }
+
+    private static void expect(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static void expectEquals(long expected, long actual, String what) {
+        if (expected != actual) {
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    private static void expectThrows(Class<? extends Throwable> type, Check check) throws Exception {
+        try {
+            check.run();
+        } catch (Throwable t) {
+            if (type.isInstance(t)) {
+                return;
+            }
+            throw new AssertionError("expected " + type.getSimpleName() + " but got " + t);
+        }
+        throw new AssertionError("expected " + type.getSimpleName());
+    }
+
+    // Runs body on each of threads threads at once and waits for all of them.
+    private static void concurrently(int threads, Check body) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    body.run();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Path tempFile(String prefix) throws IOException {
+        Path path = Files.createTempFile(prefix, ".tmp");
+        path.toFile().deleteOnExit();
+        return path;
+    }
+
+    private static void duplicatesSuppressedInWindow() {
+        DuplicateFilter filter = new DuplicateFilter(1_000, 1_000, 0.001);
+        expect(!filter.isDuplicate("IVY000001", ViolationType.SPEEDING, 500), "first report");
+        expect(filter.isDuplicate("IVY000001", ViolationType.SPEEDING, 900), "repeat in the same bucket");
+        expect(filter.isDuplicate("IVY000001", ViolationType.SPEEDING, 1_700), "repeat in the next bucket");
+        expect(!filter.isDuplicate("IVY000001", ViolationType.PARKING, 900), "another type");
+        expect(!filter.isDuplicate("IVY000002", ViolationType.SPEEDING, 900), "another license");
+        expect(!filter.isDuplicate("IVY000001", ViolationType.SPEEDING, 2_500), "two buckets later");
+        expect(!filter.isDuplicate("IVY000001", ViolationType.SPEEDING, 10_000), "far later");
+        expect(!filter.isDuplicate("IVY000001", ViolationType.SPEEDING, 900), "older than the ring");
+        expectEquals(1, filter.getTooLate(), "too late to check");
+        expectEquals(2, filter.getSuppressed(), "suppressed");
+    }
+
+    private static void rollupsTotalPeriods() {
+        FineRollup rollup = new FineRollup();
+        long day = 86_400_000L;
+        long monday = LocalDate.of(2024, 1, 1).toEpochDay() * day;
+        rollup.record(ViolationType.SPEEDING, 15_000, monday + 1);
+        rollup.record(ViolationType.PARKING, 5_000, monday + day - 1);
+        rollup.record(ViolationType.PARKING, 5_000, monday + 6 * day);
+        rollup.record(ViolationType.SIGNAL_VIOLATION, 10_000, monday + 7 * day);
+        rollup.record(ViolationType.SPEEDING, 15_000, monday + 31 * day);
+
+        SortedMap<LocalDate, FineTotals> days = rollup.report(FineRollup.Period.DAY,
+                LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 7));
+        expectEquals(2, days.size(), "days with fines");
+        expectEquals(20_000, days.get(LocalDate.of(2024, 1, 1)).getTotalCents(), "first day cents");
+        expectEquals(2, days.get(LocalDate.of(2024, 1, 1)).getTotalCount(), "first day count");
+
+        SortedMap<LocalDate, FineTotals> weeks = rollup.report(FineRollup.Period.WEEK,
+                LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 31));
+        expectEquals(2, weeks.size(), "weeks");
+        expectEquals(25_000, weeks.get(LocalDate.of(2024, 1, 1)).getTotalCents(), "first week cents");
+        expectEquals(10_000, weeks.get(LocalDate.of(2024, 1, 8)).getCents(ViolationType.SIGNAL_VIOLATION),
+                "second week signal cents");
+
+        SortedMap<LocalDate, FineTotals> months = rollup.report(FineRollup.Period.MONTH,
+                LocalDate.of(2024, 1, 2), LocalDate.of(2024, 2, 29));
+        expectEquals(15_000, months.get(LocalDate.of(2024, 1, 1)).getTotalCents(), "january from the 2nd");
+        expectEquals(15_000, months.get(LocalDate.of(2024, 2, 1)).getCents(ViolationType.SPEEDING), "february");
+
+        ViolationStore store = new ViolationStore();
+        store.append(1, 1, ViolationType.SPEEDING.getCode(), 15_000, monday + 1);
+        store.append(2, 1, ViolationType.PARKING.getCode(), 5_000, monday + 6 * day);
+        store.append(3, 1, ViolationType.PARKING.getCode(), 5_000, monday + 7 * day);
+        FineTotals week = store.totalsBetween(monday, monday + 7 * day);
+        expectEquals(20_000, week.getTotalCents(), "store totals for the week");
+        expectEquals(2, week.getTotalCount(), "store count for the week");
+    }
+
+    private static void exportEscapesNames() throws Exception {
+        DriverRegistry registry = new DriverRegistry();
+        registry.register("Smith, \"Jo\"", "EXP000001");
+        registry.register("Line\nBreak\\", "EXP000002");
+        registry.register("Zo\u00eb", "EXP000003").addViolation(ViolationType.PARKING, 1_234, 1_000L);
+
+        Path csv = tempFile("statements");
+        expectEquals(3, new StatementExport(registry, StatementExport.Format.CSV, 1).export(csv).getStatements(),
+                "csv statements");
+        String csvText = Files.readString(csv);
+        expect(csvText.startsWith("license,name,total_fines,violations\n"), "csv header");
+        expect(csvText.contains("EXP000001,\"Smith, \"\"Jo\"\"\",0.00,0\n"), "quoted csv name in " + csvText);
+        expect(csvText.contains("EXP000002,\"Line\nBreak\\\",0.00,0\n"), "csv line break in " + csvText);
+        expect(csvText.contains("EXP000003,Zo\u00eb,12.34,1\n"), "csv utf-8 name in " + csvText);
+
+        Path json = tempFile("statements");
+        new StatementExport(registry, StatementExport.Format.JSONL, 1).export(json);
+        List<String> lines = Files.readAllLines(json);
+        expectEquals(3, lines.size(), "json lines");
+        expect(lines.contains("{\"license\":\"EXP000001\",\"name\":\"Smith, \\\"Jo\\\"\",\"totalFines\":0.00,\"violations\":0}"),
+                "escaped json quotes in " + lines);
+        expect(lines.contains("{\"license\":\"EXP000002\",\"name\":\"Line\\u000aBreak\\\\\",\"totalFines\":0.00,\"violations\":0}"),
+                "escaped json control and backslash in " + lines);
+        expect(lines.contains("{\"license\":\"EXP000003\",\"name\":\"Zo\u00eb\",\"totalFines\":12.34,\"violations\":1}"),
+                "utf-8 json name in " + lines);
+    }
+
+    // The rows of a CSV statement file, below its header.
+    private static List<String> rows(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        expect(lines.get(0).equals("license,name,total_fines,violations"), "csv header in " + file);
+        return lines.subList(1, lines.size());
+    }
+
+    // Reads parts 1..parts of an export to directory/statements.csv, in part order.
+    private static List<String> partRows(Path directory, int parts) throws IOException {
+        List<String> joined = new ArrayList<>();
+        for (int part = 1; part <= parts; part++) {
+            Path file = directory.resolve("statements-" + part + ".csv");
+            file.toFile().deleteOnExit();
+            joined.addAll(rows(file));
+        }
+        expect(!Files.exists(directory.resolve("statements.csv")), "no unnumbered file");
+        return joined;
+    }
+
+    private static void exportSplitsContiguousParts() throws Exception {
+        DriverRegistry registry = new DriverRegistry();
+        for (int i = 0; i < 5; i++) {
+            registry.register("Part " + i, "PART0000" + i).addViolation(ViolationType.PARKING, 100 * (i + 1), 1_000L);
+        }
+        Path single = tempFile("statements");
+        new StatementExport(registry, StatementExport.Format.CSV, 1).export(single);
+        List<String> expected = rows(single);
+        expectEquals(5, expected.size(), "single part rows");
+
+        for (int parts : new int[] {2, 3, 8}) { // eight parts for five slots leaves some empty
+            Path directory = Files.createTempDirectory("parts");
+            directory.toFile().deleteOnExit();
+            StatementExport.Report report = new StatementExport(registry, StatementExport.Format.CSV, parts)
+                    .export(directory.resolve("statements.csv"));
+            expectEquals(5, report.getStatements(), parts + " part statements");
+            List<String> joined = partRows(directory, parts);
+            expect(joined.equals(expected), parts + " parts out of order: " + joined);
+        }
+    }
+
+    private static void exportReadsFileBackedRegistry() throws Exception {
+        Path path = registryFile();
+        DriverRegistry registry = DriverRegistry.open(path, 64);
+        registry.register("Ann", "EXPF00001").addViolation(ViolationType.PARKING, 1_000, 1_000L);
+        registry.register("Bo, Jr", "EXPF00002");
+        registry.register("Ann Two", "EXPF00001").addViolation(ViolationType.PARKING, 2_500, 2_000L); // replaces Ann
+        registry.get("EXPF00002").addViolation(ViolationType.SPEEDING, 15_000, 3_000L);
+        List<String> expected = List.of("EXPF00002,\"Bo, Jr\",150.00,1", "EXPF00001,Ann Two,25.00,1"); // record order
+        try {
+            Path csv = tempFile("statements");
+            expectEquals(2, new StatementExport(registry, StatementExport.Format.CSV, 1).export(csv).getStatements(),
+                    "statements");
+            expect(rows(csv).equals(expected), "rows " + rows(csv));
+        } finally {
+            registry.close();
+        }
+
+        // Reopened, the totals come from the mapping; four parts cover three record slots.
+        DriverRegistry reopened = DriverRegistry.open(path, 64);
+        try {
+            Path directory = Files.createTempDirectory("parts");
+            directory.toFile().deleteOnExit();
+            expectEquals(2, new StatementExport(reopened, StatementExport.Format.CSV, 4)
+                    .export(directory.resolve("statements.csv")).getStatements(), "reopened statements");
+            List<String> joined = partRows(directory, 4);
+            expect(joined.equals(expected), "reopened rows " + joined);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private static void settledOffendersLeaveRanking() {
+        OffenderIndex index = new OffenderIndex();
+        Driver alice = new Driver("Alice", "ALICE0001");
+        Driver bob = new Driver("Bob", "BOB000001");
+        index.add(alice, 15_000);
+        index.add(bob, 5_000);
+        expectEquals(1, index.rank(alice), "alice rank");
+        expectEquals(2, index.rank(bob), "bob rank");
+        index.add(alice, -15_000);
+        expectEquals(0, index.rank(alice), "settled alice rank");
+        expectEquals(1, index.rank(bob), "bob rank after alice paid");
+        expectEquals(1, index.size(), "ranked drivers");
+        index.add(alice, 2_000);
+        expectEquals(2, index.rank(alice), "alice rank after a new fine");
+        expectEquals(2_000, index.top(2).get(1).getScore(), "alice score");
+    }
+
+    private static void removedOffenderStaysOut() throws Exception {
+        OffenderIndex index = new OffenderIndex();
+        Driver replaced = new Driver("Carol", "CAROL0001");
+        index.add(replaced, 10_000);
+        index.remove(replaced);
+        concurrently(4, () -> {
+            for (int i = 0; i < 1_000; i++) {
+                index.add(replaced, 100);
+            }
+        });
+        expectEquals(0, index.rank(replaced), "replaced driver rank");
+        expectEquals(0, index.size(), "ranked drivers");
+        expect(index.top(10).isEmpty(), "no standings");
+    }
+
+    private static void replacedDriverIsRetired() {
+        DriverRegistry registry = new DriverRegistry();
+        Driver first = registry.register("Dan", "DAN000001");
+        first.addViolation(ViolationType.PARKING, 5_000, 1_000L);
+        expect(OffenderIndex.BY_FINES.rank(first) > 0, "ranked before the replacement");
+        Driver second = registry.register("Dan Two", "DAN000001");
+        expect(first.isRetired() && !second.isRetired(), "only the replaced driver is retired");
+        first.addViolation(ViolationType.PARKING, 5_000, 2_000L);
+        second.addViolation(ViolationType.PARKING, 5_000, 2_000L);
+        expectEquals(0, OffenderIndex.BY_FINES.rank(first), "replaced driver rank");
+        expect(OffenderIndex.BY_FINES.rank(second) > 0, "new driver ranked");
+    }
+
+    private static void packedTotalsKeepSign() {
+        FineAccumulator fines = new FineAccumulator();
+        fines.add(-5_000, -1);
+        expectEquals(-5_000, FineAccumulator.cents(fines.sum()), "cents after an early waiver");
+        expectEquals(-1, FineAccumulator.count(fines.sum()), "count after an early waiver");
+        fines.add(5_000, 1);
+        fines.add(7_500, 2);
+        expectEquals(7_500, FineAccumulator.cents(fines.sum()), "cents");
+        expectEquals(2, FineAccumulator.count(fines.sum()), "count");
+    }
+
+    private static void packedTotalsStayInRange() throws Exception {
+        long top = FineAccumulator.plus(0, FineAccumulator.MAX_CENTS, FineAccumulator.MAX_COUNT);
+        expectEquals(FineAccumulator.MAX_CENTS, FineAccumulator.cents(top), "cents at the limit");
+        expectEquals(FineAccumulator.MAX_COUNT, FineAccumulator.count(top), "count at the limit");
+        expectThrows(IllegalArgumentException.class, () -> FineAccumulator.plus(top, 1, 0));
+        expectThrows(IllegalArgumentException.class, () -> FineAccumulator.plus(top, 0, 1));
+        long bottom = FineAccumulator.plus(0, -FineAccumulator.MAX_CENTS, -FineAccumulator.MAX_COUNT);
+        expectEquals(-FineAccumulator.MAX_CENTS, FineAccumulator.cents(bottom), "cents at the negative limit");
+        expectEquals(-FineAccumulator.MAX_COUNT, FineAccumulator.count(bottom), "count at the negative limit");
+        expectThrows(IllegalArgumentException.class, () -> new FineAccumulator().add(FineAccumulator.MAX_CENTS + 1, 1));
+
+        Driver driver = new Driver("Max", "MAX000001");
+        driver.addViolation(ViolationType.SPEEDING, FineAccumulator.MAX_CENTS - 1, 1_000L);
+        driver.addViolation(ViolationType.PARKING, 1, 2_000L);
+        expectThrows(IllegalArgumentException.class, () -> driver.addViolation(ViolationType.PARKING, 1, 3_000L));
+        expectEquals(FineAccumulator.MAX_CENTS, driver.getTotalFinesCents(), "fines at the limit");
+        expectEquals(2, driver.getViolationCount(), "violations");
+        expectEquals(2, driver.violationsBetween(Long.MIN_VALUE, Long.MAX_VALUE).size(), "recorded rows");
+        driver.pay(FineAccumulator.MAX_CENTS, -1);
+        driver.addViolation(ViolationType.PARKING, 1, 4_000L);
+        expectEquals(1, driver.getTotalFinesCents(), "fines after paying off");
+    }
+
+    private static void totalsSurviveRacingWaivers() throws Exception {
+        Driver driver = new Driver("Dana", "DANA00001");
+        long now = System.currentTimeMillis();
+        concurrently(8, () -> {
+            for (int i = 0; i < 2_000; i++) {
+                if (i % 500 == 499) {
+                    driver.resetViolations();
+                } else {
+                    driver.addViolation(ViolationType.PARKING, 100, now + i);
+                }
+            }
+        });
+        long owed = 0;
+        int unpaid = 0;
+        for (ViolationRecord record : driver.violationsBetween(Long.MIN_VALUE, Long.MAX_VALUE)) {
+            owed += record.getOutstandingCents();
+            unpaid += record.getOutstandingCents() > 0 ? 1 : 0;
+        }
+        expectEquals(owed, driver.getTotalFinesCents(), "outstanding cents");
+        expectEquals(unpaid, driver.getViolationCount(), "outstanding violations");
+        expectEquals(8 * 1_996, driver.countBetween(Long.MIN_VALUE, Long.MAX_VALUE), "recorded violations");
+        driver.resetViolations();
+        expectEquals(0, driver.getTotals(), "totals after a final waiver");
+        expectEquals(0, OffenderIndex.BY_FINES.rank(driver), "rank after a final waiver");
+    }
+
+    private static Path registryFile() throws IOException {
+        Path path = tempFile("drivers");
+        Path.of(path + ".violations").toFile().deleteOnExit();
+        return path;
+    }
+
+    private static void registryKeepsViolationRows() throws Exception {
+        Path path = registryFile();
+        long day = 1_700_000_000_000L;
+        DriverRegistry registry = DriverRegistry.open(path, 64);
+        Driver erin = registry.register("Erin", "ERIN00001");
+        expectEquals(15_000, erin.recordViolation(ViolationType.SPEEDING, day), "first speeding fine");
+        erin.addViolation(ViolationType.PARKING, 4_000, day + 1_000);
+        Driver fay = registry.register("Fay", "FAY000001");
+        fay.addViolation(ViolationType.PARKING, 5_000, day);
+        fay.resetViolations();
+        registry.close();
+
+        DriverRegistry reopened = DriverRegistry.open(path, 64);
+        try {
+            Driver again = reopened.get("ERIN00001");
+            expectEquals(2, again.violationsBetween(Long.MIN_VALUE, Long.MAX_VALUE).size(), "erin's rows");
+            expectEquals(19_000, again.getTotalFinesCents(), "erin's totals");
+            expectEquals(22_500, again.recordViolation(ViolationType.SPEEDING, day + 2_000), "repeat speeding fine");
+            expectEquals(5_000, again.pay(5_000, -1), "payment applied");
+            expectEquals(10_000, again.violationsBetween(day, day + 1).get(0).getOutstandingCents(), "oldest owes");
+            Driver fayAgain = reopened.get("FAY000001");
+            expectEquals(0, fayAgain.getTotals(), "fay's totals");
+            expectEquals(1, fayAgain.countBetween(Long.MIN_VALUE, Long.MAX_VALUE), "fay's rows");
+            expectEquals(0, fayAgain.violationsBetween(Long.MIN_VALUE, Long.MAX_VALUE).get(0).getOutstandingCents(),
+                    "fay's waived row");
+        } finally {
+            reopened.close();
+        }
+    }
+
+    // Cents of the logged violations, by record, in replay order.
+    private static Map<Integer, List<Long>> replayViolations(ViolationLog log) throws IOException {
+        Map<Integer, List<Long>> byRecord = new HashMap<>();
+        log.replay(new ViolationLog.Handler() {
+            @Override
+            public void violation(int record, ViolationType type, long cents, long timestamp) {
+                byRecord.computeIfAbsent(record, r -> new ArrayList<>()).add(cents);
+            }
+
+            @Override
+            public void waiver(int record) {
+            }
+
+            @Override
+            public void payment(int record, String reference, int[] violations, long[] cents) {
+            }
+        });
+        return byRecord;
+    }
+
+    private static Map<Integer, List<Long>> replayViolations(Path path) throws IOException {
+        ViolationLog log = ViolationLog.open(path);
+        try {
+            return replayViolations(log);
+        } finally {
+            log.close();
+        }
+    }
+
+    private static void logAppendsConcurrently() throws Exception {
+        Path path = tempFile("violations");
+        int threads = 8;
+        int perThread = 2_000;
+        AtomicInteger next = new AtomicInteger();
+        ViolationLog log = ViolationLog.open(path);
+        try {
+            concurrently(threads, () -> {
+                int record = next.getAndIncrement();
+                for (int i = 0; i < perThread; i++) {
+                    log.logViolation(record, ViolationType.PARKING, i, 1_000L);
+                }
+            });
+            long end = Long.BYTES + (long) threads * perThread * (8 + 22);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (log.getForced() < end && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            expectEquals(end, log.getForced(), "forced before close");
+        } finally {
+            log.close();
+        }
+
+        Map<Integer, List<Long>> byRecord = replayViolations(path);
+        expectEquals(threads, byRecord.size(), "records");
+        for (List<Long> cents : byRecord.values()) {
+            expectEquals(perThread, cents.size(), "entries per record");
+            for (int i = 0; i < perThread; i++) {
+                expectEquals(i, cents.get(i), "entry order");
+            }
+        }
+    }
+
+    private static void logDropsEntriesPastGap() throws Exception {
+        Path path = tempFile("violations");
+        ViolationLog log = ViolationLog.open(path);
+        for (int i = 1; i <= 3; i++) {
+            log.logViolation(0, ViolationType.PARKING, i, 1_000L);
+        }
+        log.close();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8 + 22), Long.BYTES + 8 + 22); // the second never landed
+        }
+
+        log = ViolationLog.open(path);
+        expect(replayViolations(log).equals(Map.of(0, List.of(1L))), "entries before the gap");
+        log.logViolation(0, ViolationType.PARKING, 4, 1_000L);
+        log.close();
+        expect(replayViolations(path).equals(Map.of(0, List.of(1L, 4L))), "the third is gone for good");
+    }
+
+    private static void unbackedTotalsBlockPayments() throws Exception {
+        Path path = registryFile();
+        DriverRegistry registry = DriverRegistry.open(path, 64);
+        registry.register("Gus", "GUS000001").addViolation(ViolationType.PARKING, 5_000, 1_000L);
+        registry.close();
+        Files.delete(Path.of(path + ".violations")); // as saved before violations were logged
+
+        DriverRegistry reopened = DriverRegistry.open(path, 64);
+        try {
+            Driver gus = reopened.get("GUS000001");
+            expectEquals(5_000, gus.getTotalFinesCents(), "totals kept in the file");
+            expectThrows(IllegalStateException.class, () -> gus.pay(1_000, -1));
+            gus.resetViolations();
+            expectEquals(0, gus.getTotals(), "totals after the waiver");
+            gus.addViolation(ViolationType.PARKING, 2_000, 2_000L);
+            expectEquals(2_000, gus.pay(2_000, -1), "payment after the waiver");
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private static void registriesShareRules() throws Exception {
+        String longName = "N".repeat(44);
+        DriverRegistry memory = new DriverRegistry();
+        expectThrows(IllegalArgumentException.class, () -> memory.register(longName, "LONG00001"));
+        expect(!memory.contains("LONG00001"), "rejected driver is not registered");
+        Driver inMemory = memory.register("Hal", "HAL000001");
+        DriverRegistry file = DriverRegistry.open(registryFile(), 64);
+        try {
+            expectThrows(IllegalArgumentException.class, () -> file.register(longName, "LONG00001"));
+            Driver onFile = file.register("Hal", "HAL000001");
+            expect(inMemory.getId() != onFile.getId(), "drivers in different registries share an id");
+            inMemory.addViolation(ViolationType.PARKING, 1_000, 1_000L);
+            expectEquals(0, onFile.countBetween(Long.MIN_VALUE, Long.MAX_VALUE), "file driver's rows");
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void ingestCrossesWindowEdges() throws Exception {
+        DriverRegistry registry = new DriverRegistry();
+        Driver[] drivers = new Driver[5];
+        for (int i = 0; i < drivers.length; i++) {
+            drivers[i] = registry.register("Window " + i, "WIN00000" + i);
+        }
+        StringBuilder csv = new StringBuilder("license,type,amount,timestamp\n");
+        long timestamp = 1_800_000_000_000L;
+        for (int row = 0; row < 200; row++) {
+            if (row == 100) {
+                csv.append("WIN000000,Parking,10,").append("9".repeat(150)).append('\n'); // line 102
+            }
+            timestamp += 1_000_000;
+            csv.append("WIN00000").append(row % 5).append(",Parking,10,").append(timestamp)
+                    .append(row % 3 == 0 ? "\r\n" : "\n");
+        }
+        csv.setLength(csv.length() - 1); // no newline after the last row
+        Path file = tempFile("camera");
+        Files.writeString(file, csv);
+
+        ViolationIngest.Report report = new ViolationIngest(registry, 3, 64).ingest(file);
+        expectEquals(201, report.getRows(), "rows");
+        expectEquals(200, report.getApplied(), "applied");
+        expectEquals(1, report.getRejected(), "rejected");
+        expect(report.getErrors().equals(List.of("line 102: Row longer than 64 bytes.")), "errors " + report.getErrors());
+        for (Driver driver : drivers) {
+            expectEquals(40, driver.getViolationCount(), driver.getLicenseNumber() + " violations");
+            expectEquals(40_000, driver.getTotalFinesCents(), driver.getLicenseNumber() + " fines");
+        }
+    }
+
+    private static void ingestedFinesParseExactly() throws Exception {
+        DriverRegistry registry = new DriverRegistry();
+        Driver driver = registry.register("Exact", "EXA000001");
+        Path file = tempFile("camera");
+        Files.writeString(file, "license,type,amount,timestamp\n"
+                + "EXA000001,Parking,0.004,1000\n"
+                + "EXA000001,Parking,NaN,2000\n"
+                + "EXA000001,Parking,Infinity,3000\n"
+                + "EXA000001,Parking,-0,4000\n"
+                + "EXA000001,Parking,12.34,5000\n"
+                + "EXA000001,Parking,,6000\n");
+        ViolationIngest.Report report = new ViolationIngest(registry, 1, 64).ingest(file);
+        expectEquals(2, report.getApplied(), "applied");
+        expectEquals(4, report.getRejected(), "rejected");
+        expect(report.getErrors().equals(List.of("line 2: Invalid fine amount.", "line 3: Invalid fine amount.",
+                "line 4: Invalid fine amount.", "line 5: Fine amount must be positive.")), "errors " + report.getErrors());
+        long scheduled = FineSchedule.current().fineCents(ViolationType.PARKING, 1);
+        expectEquals(1_234 + scheduled, driver.getTotalFinesCents(), "fines");
+
+        expectThrows(InvalidViolationException.class, () -> new SpecificViolation("Parking", Double.NaN));
+        expectThrows(InvalidViolationException.class, () -> new SpecificViolation("Parking", Double.POSITIVE_INFINITY));
+        SpecificViolation fraction = new SpecificViolation("Parking", 0.004);
+        expectThrows(InvalidViolationException.class, () -> driver.addViolation(fraction, 7_000L));
+        driver.addViolation(new SpecificViolation("Parking", 19.99), 8_000L);
+        expectEquals(1_234 + scheduled + 1_999, driver.getTotalFinesCents(), "fines with an exact amount");
+    }
+
+    private static void suspensionFiresOnCrossing() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("rules", "speeding");
+        properties.setProperty("rule.speeding.type", "speeding");
+        properties.setProperty("rule.speeding.count", "2");
+        properties.setProperty("rule.speeding.days", "1");
+        SuspensionRules previous = SuspensionRules.current();
+        List<SuspensionEvent> events = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch delivered = new CountDownLatch(2);
+        SuspensionRules.install(SuspensionRules.fromProperties(properties));
+        SuspensionEngine.DEFAULT.setSink(event -> {
+            events.add(event);
+            delivered.countDown();
+        });
+        try {
+            Driver jo = new Driver("Jo", "JO0000001");
+            long day = 86_400_000L;
+            jo.addViolation(ViolationType.SPEEDING, 100, 10 * day);
+            jo.addViolation(ViolationType.PARKING, 100, 10 * day + 1);
+            jo.addViolation(ViolationType.SPEEDING, 100, 11 * day + 1); // first fell out of the window
+            jo.addViolation(ViolationType.SPEEDING, 100, 11 * day + 2); // crosses: fires
+            jo.addViolation(ViolationType.SPEEDING, 100, 11 * day + 3); // already over: silent
+            jo.addViolation(ViolationType.SPEEDING, 100, 13 * day); // window restarted
+            jo.addViolation(ViolationType.SPEEDING, 100, 13 * day + 1); // crosses again: fires
+            expect(delivered.await(5, TimeUnit.SECONDS), "two events delivered");
+            Thread.sleep(200);
+            expectEquals(2, events.size(), "events");
+            expectEquals(11 * day + 2, events.get(0).getTimestamp(), "first event time");
+            expectEquals(2, events.get(0).getValue(), "first event measure");
+            expectEquals(13 * day + 1, events.get(1).getTimestamp(), "second event time");
+        } finally {
+            SuspensionRules.install(previous);
+            SuspensionEngine.DEFAULT.setSink(SuspensionEngine.CONSOLE);
+        }
+    }
+
+    private static void suspensionQueueIsBounded() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<SuspensionEvent> delivered = Collections.synchronizedList(new ArrayList<>());
+        SuspensionEngine engine = new SuspensionEngine(event -> {
+            blocked.countDown();
+            release.await();
+            delivered.add(event);
+        }, 4);
+        Driver kim = new Driver("Kim", "KIM000001");
+        SuspensionRules.Rule rule = SuspensionRules.current().getRules().get(0);
+        long threshold = rule.getThreshold();
+        ViolationTimeline timeline = new ViolationTimeline();
+        // Every evaluation sees exactly the threshold, so each one fires.
+        for (int i = 0; i < threshold; i++) {
+            timeline.add(i, 1_000 + i, 15_000, ViolationType.SPEEDING.getCode());
+        }
+        engine.evaluate(kim, timeline, ViolationType.SPEEDING, 15_000, 1_000 + threshold - 1);
+        expect(blocked.await(5, TimeUnit.SECONDS), "sink is busy");
+        for (int i = 0; i < 10; i++) {
+            engine.evaluate(kim, timeline, ViolationType.SPEEDING, 15_000, 1_000 + threshold - 1);
+        }
+        expectEquals(11, engine.getSuspensions(), "suspensions");
+        expectEquals(6, engine.getDropped(), "dropped");
+        release.countDown();
+        engine.close();
+        expectEquals(5, delivered.size(), "delivered");
+    }
+
+    private static void fileSinkAppendsNotices() throws Exception {
+        Path file = tempFile("notices");
+        Driver lee = new Driver("Lee", "LEE000001");
+        SuspensionRules.Rule rule = SuspensionRules.current().getRules().get(0);
+        try (SuspensionFileSink sink = new SuspensionFileSink(file)) {
+            SuspensionEngine engine = new SuspensionEngine(sink);
+            ViolationTimeline timeline = new ViolationTimeline();
+            for (int i = 0; i < rule.getThreshold(); i++) {
+                timeline.add(i, 1_000 + i, 15_000, ViolationType.SPEEDING.getCode());
+            }
+            for (int i = 0; i < 3; i++) {
+                engine.evaluate(lee, timeline, ViolationType.SPEEDING, 15_000, 1_000 + rule.getThreshold() - 1);
+            }
+            engine.close();
+        }
+        List<String> lines = Files.readAllLines(file);
+        expectEquals(3, lines.size(), "notice lines");
+        expect(lines.get(0).startsWith("Suspension: Lee (LEE000001)"), "notice text " + lines.get(0));
+    }
+
+    private static void violationsNumberedPerDriver() throws Exception {
+        Driver mia = new Driver("Mia", "MIA000001");
+        Driver[] others = new Driver[20];
+        for (int i = 0; i < others.length; i++) {
+            others[i] = new Driver("Other " + i, "OTHER" + (1000 + i));
+        }
+        for (int n = 0; n < 3; n++) {
+            for (Driver other : others) {
+                other.addViolation(ViolationType.PARKING, 100, 5_000L);
+            }
+            mia.addViolation(ViolationType.PARKING, 1_000 * (n + 1), 3_000L - n); // recorded newest first
+        }
+        List<ViolationRecord> records = mia.violationsBetween(Long.MIN_VALUE, Long.MAX_VALUE);
+        expectEquals(3, records.get(0).getId(), "oldest is the last recorded");
+        expectEquals(1, records.get(2).getId(), "newest is the first recorded");
+        expectEquals(2_000, mia.pay(5_000, 2), "paid toward #2");
+        expectEquals(0, mia.violationsBetween(2_999, 3_000).get(0).getOutstandingCents(), "#2 settled");
+        expectEquals(4_000, mia.getTotalFinesCents(), "outstanding after paying #2");
+        expectEquals(2, mia.getViolationCount(), "unpaid after paying #2");
+        expectThrows(IllegalArgumentException.class, () -> mia.pay(100, 4));
+        expectEquals(4_000, mia.pay(10_000, -1), "paid toward the oldest");
+        expectEquals(0, mia.getTotals(), "nothing owed");
+    }
+
+    private static void paymentsAreIdempotent() throws Exception {
+        PaymentLedger ledger = new PaymentLedger();
+        Driver ned = new Driver("Ned", "NED000001");
+        ned.addViolation(ViolationType.PARKING, 5_000, 1_000L);
+        expectEquals(3_000, ledger.pay(ned, "BANK-1", 3_000, -1), "first payment");
+        expectEquals(-1, ledger.pay(ned, "BANK-1", 3_000, -1), "repeated reference");
+        expectThrows(IllegalArgumentException.class, () -> ledger.pay(ned, "BANK-2", 100, 9));
+        expect(!ledger.contains("BANK-2"), "failed payment releases its reference");
+        expectEquals(2_000, ned.getTotalFinesCents(), "owed after one payment");
+
+        Path path = registryFile();
+        DriverRegistry registry = DriverRegistry.open(path, 64);
+        Driver ola = registry.register("Ola", "OLA000001");
+        ola.addViolation(ViolationType.PARKING, 5_000, 1_000L);
+        ola.addViolation(ViolationType.SPEEDING, 15_000, 2_000L);
+        Path payments = tempFile("payments");
+        Files.writeString(payments, "license,reference,amount,violation\n"
+                + "OLA000001,PAY-1,60.00,\n"
+                + "OLA000001,PAY-2,10.5,#2\n");
+        expectEquals(2, new PaymentIngest(registry, 2).ingest(payments).getApplied(), "first import");
+        registry.close();
+
+        DriverRegistry reopened = DriverRegistry.open(path, 64);
+        try {
+            ViolationIngest.Report again = new PaymentIngest(reopened, 2).ingest(payments);
+            expectEquals(0, again.getApplied(), "applied on re-import");
+            expectEquals(2, again.getDuplicates(), "duplicates on re-import");
+            Driver olaAgain = reopened.get("OLA000001");
+            expectEquals(20_000 - 6_000 - 1_050, olaAgain.getTotalFinesCents(), "owed after restart");
+            List<ViolationRecord> records = olaAgain.violationsBetween(Long.MIN_VALUE, Long.MAX_VALUE);
+            expectEquals(0, records.get(0).getOutstandingCents(), "#1 paid off");
+            expectEquals(15_000 - 1_000 - 1_050, records.get(1).getOutstandingCents(), "#2 partly paid");
+            expectEquals(1, olaAgain.getViolationCount(), "unpaid after restart");
+            expect(reopened.getPayments().contains("PAY-1"), "reference restored into the registry's ledger");
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private static void registriesKeepOwnReferences() throws Exception {
+        Path payments = tempFile("payments");
+        Files.writeString(payments, "license,reference,amount\nPIA000001,SHARED-1,10.00\n");
+        DriverRegistry first = new DriverRegistry();
+        DriverRegistry second = new DriverRegistry();
+        for (DriverRegistry registry : List.of(first, second)) {
+            registry.register("Pia", "PIA000001").addViolation(ViolationType.PARKING, 5_000, 1_000L);
+            expectEquals(1, new PaymentIngest(registry, 1).ingest(payments).getApplied(), "first import");
+            expectEquals(1, new PaymentIngest(registry, 1).ingest(payments).getDuplicates(), "repeated import");
+            expectEquals(4_000, registry.get("PIA000001").getTotalFinesCents(), "owed after one payment");
+            expectEquals(1_000, registry.getPayments().getAppliedCents(), "applied in this registry");
+        }
+    }
+
+    private static void paymentAmountsParseExactly() throws Exception {
+        expectEquals(1_999, PaymentIngest.parseCents("19.99"), "19.99");
+        expectEquals(1_010, PaymentIngest.parseCents("10.1"), "10.1");
+        expectEquals(29_000_000_000_000_01L, PaymentIngest.parseCents("29000000000000.01"), "large amount");
+        expectThrows(IllegalArgumentException.class, () -> PaymentIngest.parseCents("1.005"));
+        expectThrows(IllegalArgumentException.class, () -> PaymentIngest.parseCents("ten"));
+        expectThrows(IllegalArgumentException.class, () -> PaymentIngest.parseViolation("#0"));
+        expectEquals(3, PaymentIngest.parseViolation("#3"), "violation number");
+    }
+}